@@ -0,0 +1,415 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.dom.GenericDOMImplementation;
+import org.apache.batik.svggen.SVGGraphics2D;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.view.Graphics;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.core.view.VPathwayEvent;
+import org.pathvisio.core.view.VPathwayEventType;
+import org.pathvisio.core.view.VPathwayListener;
+import org.pathvisio.data.DataException;
+import org.pathvisio.desktop.gex.CachedData;
+import org.pathvisio.desktop.gex.GexManager;
+import org.pathvisio.desktop.gex.SimpleGex;
+import org.pathvisio.desktop.visualization.AbstractVisualizationMethod;
+import org.pathvisio.desktop.visualization.ColorSetManager;
+import org.pathvisio.desktop.visualization.Visualization;
+import org.pathvisio.desktop.visualization.VisualizationManager.VisualizationException;
+import org.w3c.dom.Document;
+
+/**
+ * Renders pathways with the IntViz methods of a saved visualization to PNG
+ * or SVG files, without the PathVisio desktop or a display. SVG files are
+ * written with Batik, as PathVisio does for its own SVG export. The visualization is
+ * read from the XML file PathVisio saves next to the dataset; methods of
+ * other plugins in the same visualization are skipped.
+ * <p>
+ * Pathways are rendered on a pool of worker threads. Each worker loads its
+ * own copy of the methods and color sets, so nothing is shared between
+ * pathways that are drawn at the same time except the dataset. The data of
+ * the lines of all pathways is loaded in one batch before the workers
+ * start, so the workers only read the cached data.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -Djava.awt.headless=true org.pathvisio.intviz.plugins.BatchRenderer
+ *     [-v visualization] [-z zoom] [-t threads] [-f png|svg]
+ *     dataset.pgex visualization.xml output-dir pathway.gpml|directory ...
+ * </pre>
+ */
+public final class BatchRenderer {
+
+	static final String PNG = "png";
+	static final String SVG = "svg";
+	private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+	private static final String USAGE = "Usage: BatchRenderer [-v visualization] [-z zoom] [-t threads]"
+			+ " [-f png|svg] dataset.pgex visualization.xml output-dir pathway.gpml|directory ...";
+
+	private final GexManager gexManager;
+	private final Element config;
+	private final Element visualization;
+	private final File outputDir;
+	private final double zoom;
+	private final String format;
+	private final ThreadLocal<List<AbstractVisualizationMethod>> methods =
+			new ThreadLocal<List<AbstractVisualizationMethod>>();
+
+	/**
+	 * @param gexManager manager with the dataset connected
+	 * @param config root element of the saved visualizations
+	 * @param name name of the visualization to use, or null for the first
+	 * one with IntViz methods
+	 * @param zoom zoom percentage of the images
+	 * @param format {@link #PNG} or {@link #SVG}
+	 * @throws VisualizationException if there is no such visualization
+	 */
+	public BatchRenderer(GexManager gexManager, Element config, String name,
+			File outputDir, double zoom, String format) throws VisualizationException {
+		this.gexManager = gexManager;
+		this.config = config;
+		this.outputDir = outputDir;
+		this.zoom = zoom;
+		this.format = format;
+		visualization = findVisualization(name);
+		if (visualization == null) {
+			throw new VisualizationException(name == null
+					? "No visualization with IntViz methods found"
+					: "No visualization named " + name + " with IntViz methods found");
+		}
+	}
+
+	private Element findVisualization(String name) {
+		for (Object o : config.getChildren(Visualization.XML_ELEMENT)) {
+			Element vis = (Element) o;
+			if (name != null && !name.equals(vis.getAttributeValue(Visualization.XML_ATTR_NAME))) {
+				continue;
+			}
+			for (Object m : vis.getChildren(AbstractVisualizationMethod.XML_ELEMENT)) {
+				String className = ((Element) m).getAttributeValue(AbstractVisualizationMethod.XML_ATTR_CLASS);
+				if (createMethod(className, null) != null) {
+					return vis;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Create the IntViz method with the given class name, as registered by
+	 * {@link IntVizPlugin}, or return null for methods of other plugins.
+	 */
+	private AbstractVisualizationMethod createMethod(String className, ColorSetManager csm) {
+		if (ColorByLine.class.toString().equals(className)) {
+			return new ColorByLine(gexManager, csm);
+		} else if (MultiTimeByLine.class.toString().equals(className)) {
+			return new MultiTimeByLine(gexManager, csm);
+		} else if (TextByLine.class.toString().equals(className)) {
+			return new TextByLine(gexManager);
+		} else if (LineLabel.class.toString().equals(className)) {
+			return new LineLabel();
+		}
+		return null;
+	}
+
+	/**
+	 * The methods of the current worker thread, loaded on first use
+	 */
+	private List<AbstractVisualizationMethod> getMethods() {
+		List<AbstractVisualizationMethod> result = methods.get();
+		if (result == null) {
+			ColorSetManager csm = new ColorSetManager();
+			Element cs = config.getChild(ColorSetManager.XML_ELEMENT);
+			if (cs != null) {
+				csm.fromXML(cs);
+			}
+			result = new ArrayList<AbstractVisualizationMethod>();
+			for (Object o : visualization.getChildren(AbstractVisualizationMethod.XML_ELEMENT)) {
+				Element elm = (Element) o;
+				AbstractVisualizationMethod m = createMethod(
+						elm.getAttributeValue(AbstractVisualizationMethod.XML_ATTR_CLASS), csm);
+				if (m != null) {
+					m.loadXML(elm);
+					result.add(m);
+				}
+			}
+			methods.set(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Render the given pathway to a PNG or SVG file in the output directory,
+	 * named after the pathway file.
+	 */
+	File render(File gpml) throws Exception {
+		Pathway pathway = new Pathway();
+		pathway.readFromXml(gpml, true);
+
+		VPathway vp = new VPathway(null);
+		try {
+			vp.fromModel(pathway);
+			vp.setPctZoom(zoom);
+
+			final List<AbstractVisualizationMethod> ms = getMethods();
+			vp.addVPathwayListener(new VPathwayListener() {
+				@Override
+				public void vPathwayEvent(VPathwayEvent e) {
+					if (e.getType() == VPathwayEventType.ELEMENT_DRAWN
+							&& e.getAffectedElement() instanceof Graphics) {
+						for (AbstractVisualizationMethod m : ms) {
+							m.visualizeOnDrawing((Graphics) e.getAffectedElement(), e.getGraphics2D());
+						}
+					}
+				}
+			});
+
+			String name = gpml.getName();
+			int dot = name.lastIndexOf('.');
+			File file = new File(outputDir, (dot > 0 ? name.substring(0, dot) : name) + "." + format);
+			if (SVG.equals(format)) {
+				writeSvg(vp, file);
+			} else {
+				writePng(vp, file);
+			}
+			return file;
+		} finally {
+			EdgeIndex.dispose(vp);
+			vp.dispose();
+		}
+	}
+
+	private static void writePng(VPathway vp, File file) throws IOException {
+		int width = Math.max(1, vp.getVWidth());
+		int height = Math.max(1, vp.getVHeight());
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, width, height);
+			g2d.setClip(0, 0, width, height);
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			vp.draw(g2d);
+		} finally {
+			g2d.dispose();
+		}
+		if (!ImageIO.write(img, "png", file)) {
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	private static void writeSvg(VPathway vp, File file) throws IOException {
+		int width = Math.max(1, vp.getVWidth());
+		int height = Math.max(1, vp.getVHeight());
+		Document doc = GenericDOMImplementation.getDOMImplementation()
+				.createDocument(SVG_NAMESPACE, "svg", null);
+		SVGGraphics2D svg = new SVGGraphics2D(doc);
+		svg.setSVGCanvasSize(new Dimension(width, height));
+		svg.setClip(0, 0, width, height);
+		vp.draw(svg);
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			svg.stream(out, true);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load the data of the lines of all given pathways, so that nothing is
+	 * requested while drawing. Pathways that can't be read are skipped
+	 * here and reported when they are rendered.
+	 */
+	private void loadData(List<File> pathways) throws IDMapperException, DataException {
+		CachedData cache = gexManager.getCachedData();
+		if (cache == null) return;
+		Set<Xref> refs = new LinkedHashSet<Xref>();
+		for (File gpml : pathways) {
+			Pathway pathway = new Pathway();
+			try {
+				pathway.readFromXml(gpml, true);
+			} catch (ConverterException e) {
+				continue;
+			}
+			for (PathwayElement pe : pathway.getDataObjects()) {
+				if (pe.getObjectType() == ObjectType.LINE
+						&& pe.getElementID() != null && pe.getDataSource() != null) {
+					refs.add(new Xref(pe.getElementID(), pe.getDataSource()));
+				}
+			}
+		}
+		cache.syncSeed(refs);
+	}
+
+	/**
+	 * Render all given pathways on the given number of threads, after
+	 * loading the data of all of them.
+	 *
+	 * @return the number of pathways that could not be rendered
+	 */
+	public int renderAll(List<File> pathways, int threads)
+			throws InterruptedException, IDMapperException, DataException {
+		loadData(pathways);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "IntViz batch render " + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<File>> results = new ArrayList<Future<File>>();
+			for (final File gpml : pathways) {
+				results.add(executor.submit(new Callable<File>() {
+					@Override
+					public File call() throws Exception {
+						return render(gpml);
+					}
+				}));
+			}
+
+			int failed = 0;
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					System.out.println(results.get(i).get());
+				} catch (ExecutionException e) {
+					failed++;
+					Logger.log.error("Unable to render " + pathways.get(i), e.getCause());
+					System.err.println("Unable to render " + pathways.get(i) + ": " + e.getCause());
+				}
+			}
+			return failed;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The given GPML files, and the GPML files in the given directories
+	 */
+	private static List<File> listPathways(List<String> paths) {
+		List<File> result = new ArrayList<File>();
+		for (String p : paths) {
+			File f = new File(p);
+			if (f.isDirectory()) {
+				File[] files = f.listFiles(new FileFilter() {
+					@Override
+					public boolean accept(File file) {
+						return file.isFile() && file.getName().toLowerCase().endsWith(".gpml");
+					}
+				});
+				Arrays.sort(files);
+				result.addAll(Arrays.asList(files));
+			} else {
+				result.add(f);
+			}
+		}
+		return result;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		String name = null;
+		double zoom = 100;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String format = PNG;
+		List<String> rest = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if ("-v".equals(args[i])) {
+					name = args[++i];
+				} else if ("-z".equals(args[i])) {
+					zoom = Double.parseDouble(args[++i]);
+				} else if ("-t".equals(args[i])) {
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if ("-f".equals(args[i])) {
+					format = args[++i].toLowerCase();
+				} else {
+					rest.add(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			rest.clear();
+		}
+		if (rest.size() < 4 || zoom <= 0 || !(PNG.equals(format) || SVG.equals(format))) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		File outputDir = new File(rest.get(2));
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Unable to create directory " + outputDir);
+			System.exit(1);
+		}
+
+		int failed;
+		try {
+			GexManager gexManager = new GexManager();
+			gexManager.setCurrentGex(new SimpleGex(rest.get(0), false, new DataDerby()));
+			Element config = new SAXBuilder().build(new File(rest.get(1))).getRootElement();
+			BatchRenderer renderer = new BatchRenderer(gexManager, config, name, outputDir, zoom, format);
+			failed = renderer.renderAll(listPathways(rest.subList(3, rest.size())), threads);
+		} catch (Exception e) {
+			Logger.log.error("Batch rendering failed", e);
+			System.err.println("Batch rendering failed: " + e.getMessage());
+			failed = 1;
+		}
+		System.exit(failed == 0 ? 0 : 2);
+	}
+}
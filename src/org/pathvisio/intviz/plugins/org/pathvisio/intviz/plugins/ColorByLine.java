@@ -1,15 +1,16 @@
 package org.pathvisio.intviz.plugins;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.swing.JPanel;
 
-import org.bridgedb.Xref;
 import org.jdom.Element;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.view.ArrowShape;
@@ -17,7 +18,6 @@ import org.pathvisio.core.view.Graphics;
 import org.pathvisio.core.view.Line;
 import org.pathvisio.core.view.VPathway;
 import org.pathvisio.data.DataException;
-import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.gex.CachedData;
 import org.pathvisio.desktop.gex.CachedData.Callback;
@@ -44,18 +44,80 @@ public class ColorByLine extends AbstractVisualizationMethod {
 	static final String DEFAULT_MAXDATAVALUE = "10";
 	static final int BASIC_MODEL = 1;
 	static final int GRADIENT_MODEL = 2;
+	static final ThicknessScale DEFAULT_THICKNESS_SCALE = ThicknessScale.parse(
+			DEFAULT_MINLINETHICKNESS, DEFAULT_MAXLINETHICKNESS,
+			DEFAULT_MINDATAVALUE, DEFAULT_MAXDATAVALUE, null);
+	/** Maximum size of the overlay layer in pixels */
+	static final int LAYER_PIXELS = 8 * 1024 * 1024;
 
 	Color poscolor;
 	Color negcolor;
-	Color c = Color.BLACK;
 	String minlinethickness;
 	String maxlinethickness;
 	String mindatavalue;
 	String maxdatavalue;
+	private ThicknessScale thicknessScale = DEFAULT_THICKNESS_SCALE;
+	private RenderContext renderContext;
+	private volatile EdgeRenderPlan renderPlan;
+	/** Values of the lines of the render plan, in plan order */
+	private volatile SampleColumnStore columnStore;
+	private LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
+	private boolean batched;
+	private boolean layered;
+	private boolean lookup;
+	private final OverlayLayer layer = new OverlayLayer(LAYER_PIXELS);
+	private final EdgeRenderPlan.LinePainter linePainter = new EdgeRenderPlan.LinePainter() {
+		@Override
+		public void paint(Graphics2D g2d, Line line, Color color, float width) {
+			drawColoredLine(line, color, width, g2d);
+		}
+	};
+	/** Renders the tiles of the layer from the current render plan */
+	private final OverlayLayer.Painter layerPainter = new OverlayLayer.Painter() {
+		@Override
+		public void paint(Graphics2D tile, Rectangle area) {
+			EdgeRenderPlan plan = renderPlan;
+			final RenderContext ctx = renderContext;
+			if (plan == null || ctx == null) return;
+			EdgeRenderPlan.Resolver resolver = new EdgeRenderPlan.Resolver() {
+				@Override
+				public void resolve(EdgeRenderPlan p, int index) {
+					resolvePlanEntry(p, index, ctx);
+				}
+			};
+			if (batched) {
+				EdgeBatch b = new EdgeBatch(true, levelOfDetail.showHeads(ctx.getVPathway()));
+				plan.paintArea(tile, area, resolver, b);
+				b.flush(tile);
+			} else {
+				plan.paintArea(tile, area, resolver, linePainter);
+			}
+		}
+
+		@Override
+		public Shape getShape(Line line) {
+			EdgeRenderPlan plan = renderPlan;
+			int i = plan == null ? -1 : plan.indexOf(line);
+			return i < 0 ? null : plan.getShape(i, levelOfDetail.showHeads(line.getDrawing()));
+		}
+
+		@Override
+		public int getOrder(Line line) {
+			EdgeRenderPlan plan = renderPlan;
+			return plan == null ? -1 : plan.indexOf(line);
+		}
+
+		@Override
+		public double getMargin() {
+			EdgeRenderPlan plan = renderPlan;
+			return plan == null ? 0 : EdgeCulling.strokeMargin(plan.getMaxWidth());
+		}
+	};
 
 	private List<ConfiguredSample> useSamples = new ArrayList<ConfiguredSample>();
 	private int drawModel;
 	private boolean thicknessSelect;
+	private int aggregation = RowAggregation.FIRST;
 
 	private final GexManager gexManager;
 	private final ColorSetManager csm;
@@ -147,95 +209,168 @@ public class ColorByLine extends AbstractVisualizationMethod {
 		{
 			if(useSamples.size() == 0) return; //Nothing to draw
 			Line gp = (Line) g;
-			drawArea(gp, g, g2d);
+			drawArea(gp, g, g2d, getRenderContext(gp));
+		}
+	}
+
+	/**
+	 * Get the settings snapshot for the pathway the given line is drawn on.
+	 * The snapshot is only rebuilt when the settings, the pathway or the
+	 * zoom factor have changed since the previous line.
+	 */
+	private RenderContext getRenderContext(Line gp) {
+		VPathway vp = gp.getDrawing();
+		RenderContext ctx = renderContext;
+		if (ctx == null || !ctx.isValidFor(vp)) {
+			ctx = new RenderContext(vp, getPosColor(true), getNegColor(true), thicknessScale);
+			renderContext = ctx;
+		}
+		return ctx;
+	}
+
+	void drawArea(final Line gp, Graphics g, Graphics2D g2d, final RenderContext ctx) {
+		final EdgeRenderPlan plan = getRenderPlan(gp, ctx);
+		if (plan == null)
+			return;
+
+		if (layered && layer.draw(g2d, gp, layerPainter)) {
+			return;
+		}
+
+		int i = plan.indexOf(gp);
+		if (i < 0)
+			return;
+		if (plan.getState(i) == EdgeRenderPlan.STALE) {
+			resolvePlanEntry(plan, i, ctx);
+		}
+		if (plan.getState(i) == EdgeRenderPlan.READY
+				&& EdgeCulling.isStrokeVisible(gp, g2d, plan.getWidth(i))) {
+			g2d.setClip(null);
+			drawColoredLine(gp, plan.getPaint(i), plan.getWidth(i), g2d);
 		}
 	}
 
-	void drawArea(final Line gp, Graphics g, Graphics2D g2d) {
-		int nr = useSamples.size();
-		g2d.setClip(null);
-		ConfiguredSample s = useSamples.get(nr - 1);
-		Xref idc = new Xref(gp.getPathwayElement().getGeneID(), gp
-				.getPathwayElement().getDataSource());
+	/**
+	 * Get the render plan for the pathway of the given line, computing
+	 * it for all lines if the pathway, the dataset or the settings
+	 * have changed, or if the line was added after the plan was made.
+	 */
+	private EdgeRenderPlan getRenderPlan(Line gp, final RenderContext ctx) {
 		CachedData cache = gexManager.getCachedData();
 		if (cache == null)
-			return;
+			return null;
+
+		EdgeRenderPlan plan = renderPlan;
+		if (plan == null || !plan.isValidFor(ctx.getVPathway(), cache)
+				|| plan.indexOf(gp) < 0) {
+			plan = new EdgeRenderPlan(ctx.getVPathway(), cache);
+			final ConfiguredSample s = useSamples.get(useSamples.size() - 1);
+			final SampleColumnStore store = SampleColumnStore.update(columnStore, plan,
+					Collections.singletonList(s.getSample()), aggregation,
+					GRADIENT_MODEL == drawModel && (!lookup || s.getLookupTable() == null));
+			columnStore = store;
+			boolean parallel = BASIC_MODEL == drawModel
+					|| ParallelPlanBuilder.isThreadSafe(s.getColorSet());
+			ParallelPlanBuilder.resolveAll(plan, parallel, store, new EdgeRenderPlan.Resolver() {
+				@Override
+				public void resolve(EdgeRenderPlan p, int index) {
+					resolveValue(p, index, s, store, ctx);
+				}
+			}, new EdgeRenderPlan.Resolver() {
+				@Override
+				public void resolve(EdgeRenderPlan p, int index) {
+					resolvePlanEntry(p, index, ctx);
+				}
+			});
+			// publish the plan only when it is complete
+			renderPlan = plan;
+			layer.invalidate();
+		}
+		return plan;
+	}
 
+	/**
+	 * Compute color and thickness of a single line from its data,
+	 * or request the data if it isn't cached yet.
+	 */
+	private void resolvePlanEntry(final EdgeRenderPlan plan, final int index, RenderContext ctx) {
+		final Line gp = plan.getLine(index);
+		ConfiguredSample s = useSamples.get(useSamples.size() - 1);
 		if (s.getColorSet() == null) {
 			Logger.log.trace("No colorset for sample " + s);
+			plan.setState(index, EdgeRenderPlan.NO_DATA);
 			return; // No ColorSet for this sample
 		}
-		if (cache.hasData(idc))
+
+		final SampleColumnStore store = columnStore;
+		if (store.refresh(index) != SampleColumnStore.PENDING)
 		{
-			List<? extends IRow> data = cache.getData(idc);
-			if (data.size() > 0) {
-				drawSample(s, data, gp, g2d);
-			}
+			resolveValue(plan, index, s, store, ctx);
 		} else {
-			cache.asyncGet(idc, new Callback()
+			plan.setState(index, EdgeRenderPlan.PENDING);
+			plan.getCachedData().asyncGet(XrefCache.getXref(gp), new Callback()
 			{
 				@Override
 				public void callback()
 				{
-					gp.markDirty();
+					store.markStale(index);
+					plan.markStale(index);
+					layer.invalidate(gp);
+					RepaintCoalescer.lineChanged(gp,
+							EdgeCulling.strokeMargin(plan.getMaxWidth()));
 				}
 			});
 		}
 	}
 
-	private void drawSample(ConfiguredSample s, List<? extends IRow> data,
-			Line gp, Graphics2D g2d) {
-		ColorSet cs = s.getColorSet();
-		Color rgb = cs.getColor(data.get(0), s.getSample());
-		ISample sample = s.getSample();
-		IRow dataval = data.get(0);
-		drawColoredLine(gp, rgb, g2d, dataval, sample);
-	}
-
-	private void drawColoredLine(Line gp, Color rgb, Graphics2D g2d, IRow dataval, ISample sample){
-		g2d.setPaint(rgb);
-		g2d.setColor(rgb);
-
-		Color pc = getPosColor(true);
-		Color nc = getNegColor(true);
-
-		double datavalue = (Double) dataval.getSampleData(sample);
-
-		if (datavalue >= 0) {
-			if (BASIC_MODEL == drawModel) {
-				g2d.setPaint(pc);
-				g2d.setColor(pc);
-				c = pc;
-			} else if (GRADIENT_MODEL == drawModel) {
-				c = rgb;
-			}
+	/**
+	 * Compute color and thickness of a single line from its value in the
+	 * column store. May be called on a worker thread.
+	 */
+	private void resolveValue(EdgeRenderPlan plan, int index, ConfiguredSample s,
+			SampleColumnStore store, RenderContext ctx) {
+		double datavalue = store.getValue(0, index);
+		if (s.getColorSet() == null || Double.isNaN(datavalue)) {
+			plan.setState(index, EdgeRenderPlan.NO_DATA);
+			return;
+		}
 
-		} else {
-			if (BASIC_MODEL == drawModel) {
-				g2d.setPaint(nc);
-				g2d.setColor(nc);
-				c = nc;
-			} else if (GRADIENT_MODEL == drawModel) {
-				c = rgb;
-			}
-			datavalue = datavalue * (-1);
+		Color c = null;
+		if (GRADIENT_MODEL == drawModel) {
+			ColorLookupTable table = lookup ? s.getLookupTable() : null;
+			c = table != null ? table.getColor(datavalue)
+					: s.getColorSet().getColor(store.getRow(0, index), s.getSample());
+		} else if (BASIC_MODEL == drawModel) {
+			c = datavalue >= 0 ? ctx.getPosColor() : ctx.getNegColor();
+		}
+		if (c == null) {
+			plan.setState(index, EdgeRenderPlan.NO_DATA);
+			return;
 		}
 
 		float lt = 2;
 		if (thicknessSelect) {
-			lt = setLineThickness((float) datavalue);
+			lt = ctx.getThicknessScale().thickness((float) Math.abs(datavalue));
 		}
+		plan.set(index, c.getRGB(), lt);
+	}
+
+	private void drawColoredLine(Line gp, Color c, float lt, Graphics2D g2d){
+		g2d.setPaint(c);
+		g2d.setColor(c);
 
 		int ls = gp.getPathwayElement().getLineStyle();
 		if (ls == 0) {
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 		} else if (ls == 1) {
-			g2d.setStroke(new BasicStroke(lt, BasicStroke.CAP_SQUARE,
-					BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
+			g2d.setStroke(StrokeCache.getStroke(lt, ls));
 		}
 
 		g2d.draw(gp.getVConnectorAdjusted());
 
+		if (!levelOfDetail.showHeads(gp.getDrawing()))
+			return; // too small to see the arrow heads
+
 		ArrowShape[] heads = gp.getVHeadsAdjusted();
 		ArrowShape hs = heads[0];
 		ArrowShape he = heads[1];
@@ -249,7 +384,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 		if(arrow != null)
 		{
 			// reset stroked line to solid, but use given thickness
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 
 			switch (arrow.getFillType())
 			{
@@ -276,14 +411,93 @@ public class ColorByLine extends AbstractVisualizationMethod {
 	void setUseSamples(List<ConfiguredSample> samples)
 	{
 		useSamples = samples;
+		renderPlan = null;
 	}
 
 	void setModel(int model) {
 		drawModel = model;
+		renderPlan = null;
 	}
 
 	void setThicknessSelect(boolean select) {
 		thicknessSelect = select;
+		renderPlan = null;
+	}
+
+	/**
+	 * Drop the cached render settings and plan, and notify the
+	 * visualization that this method has been modified. Also called when
+	 * a color set is edited.
+	 */
+	void settingsChanged() {
+		renderContext = null;
+		renderPlan = null;
+		layer.invalidate();
+		modified();
+	}
+
+	int getAggregation() {
+		return aggregation;
+	}
+
+	/**
+	 * Set how the rows of an interaction with several rows are combined,
+	 * see RowAggregation.
+	 */
+	void setAggregation(int aggregation) {
+		this.aggregation = aggregation;
+		settingsChanged();
+	}
+
+	LevelOfDetail getLevelOfDetail() {
+		return levelOfDetail;
+	}
+
+	void setLevelOfDetail(LevelOfDetail lod) {
+		levelOfDetail = lod;
+		layer.invalidate();
+		modified();
+	}
+
+	boolean isBatched() {
+		return batched;
+	}
+
+	/**
+	 * Render the tiles of the overlay layer with one draw call per color
+	 * and stroke, see EdgeBatch. Only used when the layer is enabled.
+	 */
+	void setBatched(boolean batched) {
+		this.batched = batched;
+		layer.invalidate();
+		modified();
+	}
+
+	boolean isLayered() {
+		return layered;
+	}
+
+	/**
+	 * Keep the drawn lines in an off-screen image and composite that
+	 * image on following paints.
+	 */
+	void setLayered(boolean layered) {
+		this.layered = layered;
+		layer.invalidate();
+		modified();
+	}
+
+	boolean isLookup() {
+		return lookup;
+	}
+
+	/**
+	 * Take gradient colors from a precomputed table instead of
+	 * interpolating them for every line.
+	 */
+	void setLookup(boolean lookup) {
+		this.lookup = lookup;
+		settingsChanged();
 	}
 
 	/**
@@ -295,7 +509,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 			if (!useSamples.contains(s)) {
 				useSamples.add(new ConfiguredSample(s));
 			}
-			modified();
+			settingsChanged();
 		}
 	}
 
@@ -306,7 +520,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 	void removeUseSample(ConfiguredSample s) {
 		if(s != null) {
 			useSamples.remove(s);
-			modified();
+			settingsChanged();
 		}
 	}
 
@@ -314,6 +528,9 @@ public class ColorByLine extends AbstractVisualizationMethod {
 	static final String XML_ATTR_NEGCOLOR = "negcolor";
 	static final String XML_ATTR_MINLINETHICKNESS = "minlinethickness";
 	static final String XML_ATTR_MAXLINETHICKNESS = "maxlinethickness";
+	static final String XML_ATTR_BATCHED = "batched";
+	static final String XML_ATTR_LAYERED = "layered";
+	static final String XML_ATTR_LOOKUP = "lookup";
 	static final String XML_ELM_ID = "sample-id";
 
 	@Override
@@ -323,6 +540,10 @@ public class ColorByLine extends AbstractVisualizationMethod {
 		xml.setAttribute(XML_ATTR_NEGCOLOR, getNegColor(true).toString());
 		xml.setAttribute(XML_ATTR_MINLINETHICKNESS, getMinThickness(true));
 		xml.setAttribute(XML_ATTR_MAXLINETHICKNESS, getMaxThickness(true));
+		xml.setAttribute(XML_ATTR_BATCHED, Boolean.toString(batched));
+		xml.setAttribute(RowAggregation.XML_ATTR, RowAggregation.toXML(aggregation));
+		xml.setAttribute(XML_ATTR_LAYERED, Boolean.toString(layered));
+		xml.setAttribute(XML_ATTR_LOOKUP, Boolean.toString(lookup));
 		for(ConfiguredSample s : useSamples)
 		{
 			if (s.getColorSet() != null) {
@@ -332,6 +553,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 			selm.setText(Integer.toString(s.getId()));
 			xml.addContent(selm);
 		}
+		xml.addContent(levelOfDetail.toXML());
 		return xml;
 	}
 
@@ -344,11 +566,21 @@ public class ColorByLine extends AbstractVisualizationMethod {
 			} catch(VisualizationException e) {
 				Logger.log.error("Unable to load plugin settings", e);
 			}
-			setPosColor(Color.decode(xml.getAttributeValue(XML_ATTR_POSCOLOR)));
-			setNegColor(Color.decode(xml.getAttributeValue(XML_ATTR_NEGCOLOR)));
-			setMinThickness(xml.getAttributeValue(XML_ATTR_MINLINETHICKNESS));
-			setMaxThickness(xml.getAttributeValue(XML_ATTR_MAXLINETHICKNESS));
-		}
+			// assigned directly: the setters notify a visualization that may not exist yet
+			poscolor = Color.decode(xml.getAttributeValue(XML_ATTR_POSCOLOR));
+			negcolor = Color.decode(xml.getAttributeValue(XML_ATTR_NEGCOLOR));
+			String minT = xml.getAttributeValue(XML_ATTR_MINLINETHICKNESS);
+			if (minT != null) minlinethickness = minT;
+			String maxT = xml.getAttributeValue(XML_ATTR_MAXLINETHICKNESS);
+			if (maxT != null) maxlinethickness = maxT;
+			updateThicknessScale();
+		}
+		levelOfDetail = LevelOfDetail.fromXML(xml, LevelOfDetail.DEFAULT);
+		batched = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_BATCHED));
+		aggregation = RowAggregation.fromXML(
+				xml.getAttributeValue(RowAggregation.XML_ATTR), RowAggregation.FIRST);
+		layered = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_LAYERED));
+		lookup = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_LOOKUP));
 	}
 
 	/**
@@ -359,127 +591,82 @@ public class ColorByLine extends AbstractVisualizationMethod {
 	protected void setPosColor(Color pc){
 		if (pc !=null ){
 			poscolor = pc;
-			modified();
+			settingsChanged();
 		}
 	}
 
 	private Color getPosColor(boolean a) {
 		Color pc = poscolor == null ? DEFAULT_POSCOLOR : poscolor;
-		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-		if(vp != null) {
-			pc = new Color(pc.getRGB());
-		}
 		return pc;
 	}
 
 	protected void setNegColor(Color nc){
 		if (nc != null){
 			negcolor = nc;
-			modified();
+			settingsChanged();
 		}
 	}
 
 	private Color getNegColor(boolean b) {
 		Color nc = negcolor == null ? DEFAULT_NEGCOLOR : negcolor;
-		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-		if(vp != null) {
-			nc = new Color(nc.getRGB());
-		}
 		return nc;
 	}
 
 	protected void setMinThickness(String minT) {
 		if (minT !=null ){
 			minlinethickness = minT;
-			modified();
+			updateThicknessScale();
+			settingsChanged();
 		}
 
 	}
 
 	private String getMinThickness(boolean a) {
 		String minT = minlinethickness == null ? DEFAULT_MINLINETHICKNESS : minlinethickness;
-		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-		if(vp != null) {
-			minT = new String(minT);
-		}
 		return minT;
 	}
 
 	protected void setMaxThickness(String maxT) {
 		if (maxT !=null ){
 			maxlinethickness = maxT;
-			modified();
+			updateThicknessScale();
+			settingsChanged();
 		}
 
 	}
 
 	private String getMaxThickness(boolean a) {
 		String maxT = maxlinethickness == null ? DEFAULT_MAXLINETHICKNESS : maxlinethickness;
-		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-		if(vp != null) {
-			maxT = new String(maxT);
-		}
 		return maxT;
 	}
 
 	protected void setMinData(String minD) {
 		if (minD !=null ){
 			mindatavalue = minD;
-			modified();
-		}
-	}
-
-	private String getMinData(boolean b) {
-		String minD = mindatavalue == null ? DEFAULT_MINDATAVALUE
-				: mindatavalue;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			minD = new String(minD);
+			updateThicknessScale();
+			settingsChanged();
 		}
-		return minD;
 	}
 
 	protected void setMaxData(String maxD) {
 		if (maxD !=null ){
 			maxdatavalue = maxD;
-			modified();
+			updateThicknessScale();
+			settingsChanged();
 		}
 	}
 
-	private String getMaxData(boolean b) {
-		String maxD = maxdatavalue == null ? DEFAULT_MAXDATAVALUE
-				: maxdatavalue;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			maxD = new String(maxD);
-		}
-		return maxD;
-	}
-
-	private float setLineThickness(float data) {
-		minlinethickness = getMinThickness(true);
-		maxlinethickness = getMaxThickness(true);
-		maxdatavalue = getMaxData(true);
-		mindatavalue = getMinData(true);
-		float minthickness = Float.parseFloat(minlinethickness);
-		float maxthickness = Float.parseFloat(maxlinethickness);
-		float maxdata = Float.parseFloat(maxdatavalue);
-		float mindata = Float.parseFloat(mindatavalue);
-
-		if (maxdata < mindata) {
-			maxdata = Float.parseFloat(mindatavalue);
-			mindata = Float.parseFloat(maxdatavalue);
-		}
-		if (maxthickness < minthickness) {
-			minthickness = Float.parseFloat(maxlinethickness);
-			maxthickness = Float.parseFloat(minlinethickness);
-		}
-
-		float linethickness = (data * ((maxthickness - minthickness) / (maxdata - mindata)))
-				+ minthickness;
-		return linethickness;
+	/**
+	 * Rebuild the thickness scale from the current settings, called
+	 * whenever one of the thickness or data range settings changes.
+	 */
+	private void updateThicknessScale() {
+		thicknessScale = ThicknessScale.parse(
+				minlinethickness == null ? DEFAULT_MINLINETHICKNESS : minlinethickness,
+				maxlinethickness == null ? DEFAULT_MAXLINETHICKNESS : maxlinethickness,
+				mindatavalue == null ? DEFAULT_MINDATAVALUE : mindatavalue,
+				maxdatavalue == null ? DEFAULT_MAXDATAVALUE : maxdatavalue,
+				thicknessScale);
 	}
 
 
@@ -492,6 +679,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 	public class ConfiguredSample {
 
 		ColorSet colorSet = new ColorSet(csm);
+		private volatile ColorLookupTable lookupTable;
 
 		int tolerance; // range 0 - 255;
 
@@ -530,8 +718,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 			if (sample == null)
 				throw new VisualizationException("Couldn't find Sample with id " + id);
 
-			setColorSet(getVisualization().getManager().getColorSetManager()
-					.getColorSet(csn));
+			colorSet = csm.getColorSet(csn);
 		}
 
 		/**
@@ -568,7 +755,7 @@ public class ColorByLine extends AbstractVisualizationMethod {
 		 */
 		public void setColorSet(ColorSet cs) {
 			colorSet = cs;
-			modified();
+			settingsChanged();
 		}
 
 		/**
@@ -579,6 +766,16 @@ public class ColorByLine extends AbstractVisualizationMethod {
 			return colorSet;
 		}
 
+		/**
+		 * Get the lookup table of the color-set, rebuilt when the color-set
+		 * has changed. Returns null if the color-set can't be tabulated.
+		 */
+		ColorLookupTable getLookupTable() {
+			ColorLookupTable table = ColorLookupTable.update(lookupTable, colorSet);
+			lookupTable = table;
+			return table;
+		}
+
 		/**
 		 * Get the name of the color-sets that is selected for visualization
 		 * 
@@ -69,6 +69,11 @@ public class ColorByLinePanel extends JPanel implements ActionListener {
 	static final String ACTION_OPTIONS = "Basic Visualization Options";
 	static final String ACTION_COMBO = "Colorset";
 	static final String ACTION_LINETTHICKNESS = "Thickness";
+	static final String ACTION_DETAIL = "Level of detail...";
+	static final String ACTION_BATCHED = "Group cached lines by style";
+	static final String ACTION_LAYERED = "Cache overlay image";
+	static final String ACTION_LOOKUP = "Color lookup table";
+	static final String ACTION_AGGREGATION = "Aggregation";
 	static final int BASIC_MODEL = 1;
 	static final int GRADIENT_MODEL = 2;
 
@@ -85,6 +90,7 @@ public class ColorByLinePanel extends JPanel implements ActionListener {
 	private final JPanel settings;
 	private final ColorSetManager csm;
 	private final JCheckBox LineCheckbox;
+	private final JCheckBox batched;
 	private int model;
 	JButton options = new JButton("Edit Basic Visualization");
 
@@ -96,7 +102,7 @@ public class ColorByLinePanel extends JPanel implements ActionListener {
 
 		setLayout(new FormLayout(
 				"4dlu, pref, 4dlu, pref, fill:pref:grow, 4dlu",
-				"4dlu, pref, 4dlu, fill:pref:grow, 4dlu"));
+				"4dlu, pref, 4dlu, fill:pref:grow, 4dlu, pref, 4dlu, pref, 4dlu"));
 
 		ButtonGroup buttons = new ButtonGroup();
 		JRadioButton rbBasic = new JRadioButton(ACTION_BASIC);
@@ -135,6 +141,40 @@ public class ColorByLinePanel extends JPanel implements ActionListener {
 
 		add(settings, cc.xyw(2, 4, 4));
 
+		JButton detail = new JButton(ACTION_DETAIL);
+		detail.setActionCommand(ACTION_DETAIL);
+		detail.addActionListener(this);
+		add(detail, cc.xy(2, 6));
+
+		batched = new JCheckBox(ACTION_BATCHED);
+		batched.setToolTipText("Draw the lines of the overlay image with one call per color and stroke");
+		batched.setActionCommand(ACTION_BATCHED);
+		batched.setSelected(method.isBatched());
+		batched.setEnabled(method.isLayered());
+		batched.addActionListener(this);
+		add(batched, cc.xy(4, 6));
+
+		JCheckBox layered = new JCheckBox(ACTION_LAYERED);
+		layered.setToolTipText("Keep the drawn lines in an image and only redraw the lines that change");
+		layered.setActionCommand(ACTION_LAYERED);
+		layered.setSelected(method.isLayered());
+		layered.addActionListener(this);
+		add(layered, cc.xy(5, 6));
+
+		JComboBox aggregation = RowAggregation.createComboBox(method.getAggregation());
+		aggregation.setActionCommand(ACTION_AGGREGATION);
+		aggregation.addActionListener(this);
+		add(new JLabel("Multiple rows:"), cc.xy(2, 8));
+		add(aggregation, cc.xy(4, 8));
+
+		JCheckBox lookup = new JCheckBox(ACTION_LOOKUP);
+		lookup.setToolTipText("Take gradient colors from a table of "
+				+ ColorLookupTable.SIZE + " precomputed colors");
+		lookup.setActionCommand(ACTION_LOOKUP);
+		lookup.setSelected(method.isLookup());
+		lookup.addActionListener(this);
+		add(lookup, cc.xy(5, 8));
+
 		rbBasic.doClick();
 
 	}
@@ -160,6 +200,23 @@ public class ColorByLinePanel extends JPanel implements ActionListener {
 			} else if (GRADIENT_MODEL == model) {
 				gradient.setThicknessSelect(LineCheckbox.isSelected());
 			}
+		} else if (ACTION_BATCHED.equals(action)) {
+			method.setBatched(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_LAYERED.equals(action)) {
+			method.setLayered(((JCheckBox) e.getSource()).isSelected());
+			batched.setEnabled(method.isLayered());
+		} else if (ACTION_LOOKUP.equals(action)) {
+			method.setLookup(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_AGGREGATION.equals(action)) {
+			method.setAggregation(((JComboBox) e.getSource()).getSelectedIndex());
+		} else if (ACTION_DETAIL.equals(action)) {
+			LevelOfDetail.showDialog((Component) e.getSource(), method.getLevelOfDetail(),
+					LevelOfDetail.HEADS, new LevelOfDetail.Listener() {
+				@Override
+				public void levelOfDetailChanged(LevelOfDetail lod) {
+					method.setLevelOfDetail(lod);
+				}
+			});
 		}
 	}
 
@@ -0,0 +1,157 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.pathvisio.desktop.visualization.ColorGradient;
+import org.pathvisio.desktop.visualization.ColorGradient.ColorValuePair;
+import org.pathvisio.desktop.visualization.ColorSet;
+import org.pathvisio.desktop.visualization.ColorSetObject;
+
+/**
+ * The colors of a color set that consists of a single gradient, sampled
+ * at {@link #SIZE} evenly spaced values between the lowest and highest
+ * value of the gradient. Looking up a color is a clamp and an array index,
+ * where the color set interpolates between the gradient points for every
+ * value. Like the gradient, values outside its range get the color of the
+ * nearest end.
+ * <p>
+ * A table remembers the gradient points it was made from, so a changed
+ * color set can be detected with {@link #matches(ColorSet)}. Color sets
+ * with rules can't be tabulated and are evaluated as before.
+ */
+final class ColorLookupTable {
+
+	static final int SIZE = 1024;
+
+	private final ColorGradient gradient;
+	private final double[] values;
+	private final int[] rgbs;
+	private final Color[] colors = new Color[SIZE];
+	private final double min;
+	private final double scale;
+
+	private ColorLookupTable(ColorGradient gradient, double[] values, int[] rgbs) {
+		this.gradient = gradient;
+		this.values = values;
+		this.rgbs = rgbs;
+
+		// the points sorted by value, as the gradient interpolates them
+		Integer[] order = new Integer[values.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(ColorLookupTable.this.values[a], ColorLookupTable.this.values[b]);
+			}
+		});
+
+		min = values[order[0]];
+		double max = values[order[order.length - 1]];
+		scale = max > min ? (SIZE - 1) / (max - min) : 0;
+
+		int p = 0;
+		for (int i = 0; i < SIZE; i++) {
+			double v = scale == 0 ? min : min + i / scale;
+			while (p < order.length - 2 && v > values[order[p + 1]]) {
+				p++;
+			}
+			colors[i] = interpolate(v, order.length == 1 ? order[0] : order[p],
+					order.length == 1 ? order[0] : order[p + 1]);
+		}
+	}
+
+	private Color interpolate(double v, int start, int end) {
+		Color c1 = new Color(rgbs[start]);
+		Color c2 = new Color(rgbs[end]);
+		double range = values[end] - values[start];
+		double alpha = range > 0 ? (v - values[start]) / range : 0;
+		alpha = Math.max(0, Math.min(1, alpha));
+		return new Color(
+				(int) (c1.getRed() + alpha * (c2.getRed() - c1.getRed())),
+				(int) (c1.getGreen() + alpha * (c2.getGreen() - c1.getGreen())),
+				(int) (c1.getBlue() + alpha * (c2.getBlue() - c1.getBlue())));
+	}
+
+	/**
+	 * Create the table for the given color set, or return null if it
+	 * doesn't consist of a single gradient.
+	 */
+	static ColorLookupTable create(ColorSet cs) {
+		ColorGradient gradient = getGradient(cs);
+		if (gradient == null) return null;
+		List<ColorValuePair> pairs = gradient.getColorValuePairs();
+		if (pairs == null || pairs.isEmpty()) return null;
+
+		double[] values = new double[pairs.size()];
+		int[] rgbs = new int[pairs.size()];
+		for (int i = 0; i < values.length; i++) {
+			ColorValuePair cvp = pairs.get(i);
+			if (cvp.getColor() == null || Double.isNaN(cvp.getValue())) return null;
+			values[i] = cvp.getValue();
+			rgbs[i] = cvp.getColor().getRGB();
+		}
+		return new ColorLookupTable(gradient, values, rgbs);
+	}
+
+	/**
+	 * Return the given table if it still matches the color set, otherwise
+	 * a new table for the color set, or null if it can't be tabulated.
+	 */
+	static ColorLookupTable update(ColorLookupTable table, ColorSet cs) {
+		return table != null && table.matches(cs) ? table : create(cs);
+	}
+
+	private static ColorGradient getGradient(ColorSet cs) {
+		if (cs == null) return null;
+		List<ColorSetObject> objects = cs.getObjects();
+		if (objects.size() != 1 || !(objects.get(0) instanceof ColorGradient)) return null;
+		return (ColorGradient) objects.get(0);
+	}
+
+	/**
+	 * Returns true if this table was made from the current gradient points
+	 * of the given color set.
+	 */
+	boolean matches(ColorSet cs) {
+		if (getGradient(cs) != gradient) return false;
+		List<ColorValuePair> pairs = gradient.getColorValuePairs();
+		if (pairs == null || pairs.size() != values.length) return false;
+		for (int i = 0; i < values.length; i++) {
+			ColorValuePair cvp = pairs.get(i);
+			if (cvp.getValue() != values[i] || cvp.getColor() == null
+					|| cvp.getColor().getRGB() != rgbs[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The color of the given value, which must not be NaN
+	 */
+	Color getColor(double value) {
+		int i = (int) ((value - min) * scale + 0.5);
+		return colors[i < 0 ? 0 : i >= SIZE ? SIZE - 1 : i];
+	}
+}
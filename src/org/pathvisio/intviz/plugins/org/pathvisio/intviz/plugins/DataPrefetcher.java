@@ -0,0 +1,137 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.EventQueue;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.core.ApplicationEvent;
+import org.pathvisio.core.Engine;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.data.DataException;
+import org.pathvisio.desktop.gex.CachedData;
+import org.pathvisio.desktop.gex.GexManager;
+import org.pathvisio.desktop.gex.GexManager.GexManagerEvent;
+import org.pathvisio.desktop.gex.GexManager.GexManagerListener;
+
+/**
+ * Loads the data of all interactions of a pathway in one batch, as soon as
+ * the pathway is opened or a dataset is connected. Without this, the data
+ * of each line is requested separately on its first paint. The Xrefs are
+ * collected on the event dispatch thread and the data is loaded on a
+ * background thread; when it is done, the pathway is repainted.
+ */
+final class DataPrefetcher implements GexManagerListener, Engine.ApplicationEventListener {
+
+	private final GexManager gexManager;
+	private final Engine engine;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "IntViz data prefetch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/** Incremented for every request, so that outdated requests are skipped */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	DataPrefetcher(GexManager gexManager, Engine engine) {
+		this.gexManager = gexManager;
+		this.engine = engine;
+		gexManager.addListener(this);
+		engine.addApplicationEventListener(this);
+	}
+
+	/**
+	 * Unregister the listeners and stop loading
+	 */
+	void dispose() {
+		gexManager.removeListener(this);
+		engine.removeApplicationEventListener(this);
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void applicationEvent(ApplicationEvent e) {
+		if (e.getType() == ApplicationEvent.Type.VPATHWAY_CREATED) {
+			Object source = e.getSource();
+			prefetch(source instanceof VPathway ? (VPathway) source : engine.getActiveVPathway());
+		}
+	}
+
+	@Override
+	public void gexManagerEvent(GexManagerEvent e) {
+		if (e.getType() == GexManagerEvent.CONNECTION_OPENED) {
+			prefetch(engine.getActiveVPathway());
+		}
+	}
+
+	/**
+	 * Load the data of all lines of the given pathway in the background
+	 */
+	void prefetch(final VPathway vp) {
+		if (vp == null || !gexManager.isConnected()) return;
+		final CachedData cache = gexManager.getCachedData();
+		if (cache == null) return;
+
+		final Set<Xref> refs = new LinkedHashSet<Xref>();
+		for (Line l : EdgeRenderPlan.getLines(vp)) {
+			Xref x = XrefCache.getXref(l);
+			if (x.getId() != null && x.getDataSource() != null && !cache.hasData(x)) {
+				refs.add(x);
+			}
+		}
+		if (refs.isEmpty()) return;
+
+		final int request = generation.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// a newer pathway or dataset replaced this request
+				if (request != generation.get()) return;
+				try {
+					long start = System.currentTimeMillis();
+					cache.syncSeed(refs);
+					Logger.log.trace("Prefetched data of " + refs.size() + " interactions in "
+							+ (System.currentTimeMillis() - start) + " ms");
+				} catch (IDMapperException ex) {
+					Logger.log.error("Unable to prefetch interaction data", ex);
+					return;
+				} catch (DataException ex) {
+					Logger.log.error("Unable to prefetch interaction data", ex);
+					return;
+				}
+				EventQueue.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						vp.redraw();
+					}
+				});
+			}
+		});
+	}
+}
@@ -0,0 +1,148 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+/**
+ * Formats data values rounded to a fixed number of decimals, the same way
+ * as rounding with Math.round and printing with Double.toString, i.e.
+ * without trailing zeros and as a whole number when rounding to 0
+ * decimals.
+ * <p>
+ * Digits are written into a reusable buffer using a table of powers of ten,
+ * and recently formatted (value, precision) pairs are kept in a small
+ * cache, so repeated painting of the same values creates no garbage.
+ */
+final class DecimalFormatter {
+
+	/** Highest supported number of decimals */
+	static final int MAX_PRECISION = 9;
+
+	private static final long[] POW10 = new long[19];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Largest rounded value that is written directly. Up to this size
+	 * Double.toString doesn't switch to scientific notation.
+	 */
+	private static final double MAX_PLAIN = 1e7;
+	/** Smallest rounded value that is written directly */
+	private static final double MIN_PLAIN = 1e-3;
+
+	private static final int CACHE_SIZE = 512; // must be a power of two
+
+	private final char[] buffer = new char[32];
+	private final long[] cacheBits = new long[CACHE_SIZE];
+	private final int[] cachePrecision = new int[CACHE_SIZE];
+	private final String[] cacheText = new String[CACHE_SIZE];
+
+	/**
+	 * Format the value rounded to the given number of decimals.
+	 */
+	synchronized String format(double d, int precision) {
+		if (Double.isNaN(d)) return "NaN";
+
+		long bits = Double.doubleToLongBits(d);
+		int slot = (int) (bits ^ (bits >>> 32)) * 31 + precision;
+		slot = (slot ^ (slot >>> 16)) & (CACHE_SIZE - 1);
+		String text = cacheText[slot];
+		if (text != null && cacheBits[slot] == bits && cachePrecision[slot] == precision) {
+			return text;
+		}
+
+		text = doFormat(d, precision);
+		cacheBits[slot] = bits;
+		cachePrecision[slot] = precision;
+		cacheText[slot] = text;
+		return text;
+	}
+
+	private String doFormat(double d, int precision) {
+		if (precision < 0 || precision > MAX_PRECISION) {
+			// not covered by the table, use plain rounding
+			int dec = (int) Math.pow(10, precision);
+			double rounded = (double) (Math.round(d * dec)) / dec;
+			return dec == 1 ? Integer.toString((int) rounded) : Double.toString(rounded);
+		}
+
+		long pow = POW10[precision];
+		double scaled = d * pow;
+		if (Double.isInfinite(scaled) || Math.abs(scaled) >= POW10[15]) {
+			// too many digits to be exact, use plain rounding
+			double rounded = (double) (Math.round(scaled)) / pow;
+			return precision == 0 ? Integer.toString((int) rounded) : Double.toString(rounded);
+		}
+
+		long r = Math.round(scaled);
+		if (precision == 0) {
+			if (r > Integer.MAX_VALUE || r < Integer.MIN_VALUE) {
+				return Integer.toString((int) (double) r);
+			}
+			int pos = buffer.length;
+			pos = writeDigits(Math.abs(r), 1, pos);
+			if (r < 0) buffer[--pos] = '-';
+			return new String(buffer, pos, buffer.length - pos);
+		}
+
+		if (r == 0) return "0.0";
+		double abs = Math.abs((double) r / pow);
+		if (abs < MIN_PLAIN || abs >= MAX_PLAIN) {
+			return Double.toString((double) r / pow);
+		}
+
+		long a = Math.abs(r);
+		long intPart = a / pow;
+		long fraction = a % pow;
+
+		// drop trailing zeros of the fraction, but keep at least one digit
+		int digits = precision;
+		while (digits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+
+		int pos = buffer.length;
+		pos = writeDigits(fraction, digits, pos);
+		buffer[--pos] = '.';
+		pos = writeDigits(intPart, 1, pos);
+		if (r < 0) buffer[--pos] = '-';
+		return new String(buffer, pos, buffer.length - pos);
+	}
+
+	/**
+	 * Write the digits of a non-negative value right to left, ending before
+	 * the given position and padded with zeros to at least minDigits.
+	 * Returns the position of the first digit.
+	 */
+	private int writeDigits(long value, int minDigits, int pos) {
+		int written = 0;
+		do {
+			buffer[--pos] = (char) ('0' + (value % 10));
+			value /= 10;
+			written++;
+		} while (value > 0);
+		while (written < minDigits) {
+			buffer[--pos] = '0';
+			written++;
+		}
+		return pos;
+	}
+}
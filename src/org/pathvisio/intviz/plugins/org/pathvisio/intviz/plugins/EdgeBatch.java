@@ -0,0 +1,137 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pathvisio.core.model.LineStyle;
+import org.pathvisio.core.view.ArrowShape;
+import org.pathvisio.core.view.Line;
+
+/**
+ * Collects the lines of a render plan into one Path2D per color and stroke
+ * and draws each of them with a single call, so the Graphics2D state only
+ * changes once per style instead of once per line. Arrow heads are
+ * collected the same way, with the solid stroke of their line.
+ * <p>
+ * Strokes come from the StrokeCache, which rounds widths to a quarter pixel,
+ * and colors are the exact colors of the plan, so a batch draws the same
+ * pixels as drawing the lines one by one. Lines of different styles are no
+ * longer drawn in pathway order, so a batch is only used to render the tiles
+ * of an OverlayLayer, which hold the overlays and not the pathway.
+ * <p>
+ * A batch collects the lines of one area; it is not thread safe.
+ */
+final class EdgeBatch implements EdgeRenderPlan.LinePainter {
+
+	/**
+	 * The lines and arrow heads of one color and stroke
+	 */
+	private static final class Bucket {
+		final Color color;
+		final Stroke stroke;
+		final Path2D lines = new Path2D.Float();
+		/** Closed arrow heads, filled before the lines are drawn */
+		Path2D fills;
+
+		Bucket(Color color, Stroke stroke) {
+			this.color = color;
+			this.stroke = stroke;
+		}
+	}
+
+	private final boolean useLineStyle;
+	private final boolean heads;
+	/** Buckets by stroke and color, strokes are shared by the StrokeCache */
+	private final Map<Stroke, Map<Integer, Bucket>> buckets =
+			new IdentityHashMap<Stroke, Map<Integer, Bucket>>();
+	/** Buckets in the order they were first used */
+	private final List<Bucket> order = new ArrayList<Bucket>();
+
+	/**
+	 * @param useLineStyle draw dashed lines dashed, otherwise all lines are solid
+	 * @param heads draw the arrow heads
+	 */
+	EdgeBatch(boolean useLineStyle, boolean heads) {
+		this.useLineStyle = useLineStyle;
+		this.heads = heads;
+	}
+
+	/**
+	 * Add a line to the bucket of its color and stroke
+	 */
+	@Override
+	public void paint(Graphics2D g2d, Line line, Color color, float width) {
+		int ls = useLineStyle ? line.getPathwayElement().getLineStyle() : LineStyle.SOLID;
+		getBucket(color, StrokeCache.getStroke(width, ls)).lines
+				.append(line.getVConnectorAdjusted(), false);
+		if (!heads) return;
+
+		Bucket b = getBucket(color, StrokeCache.getSolidStroke(width));
+		for (ArrowShape arrow : line.getVHeadsAdjusted()) {
+			if (arrow == null) continue;
+			if (arrow.getFillType() == ArrowShape.FillType.CLOSED) {
+				if (b.fills == null) {
+					b.fills = new Path2D.Float();
+				}
+				b.fills.append(arrow.getShape(), false);
+			}
+			b.lines.append(arrow.getShape(), false);
+		}
+	}
+
+	private Bucket getBucket(Color color, Stroke stroke) {
+		Map<Integer, Bucket> byColor = buckets.get(stroke);
+		if (byColor == null) {
+			byColor = new HashMap<Integer, Bucket>();
+			buckets.put(stroke, byColor);
+		}
+		Integer key = color.getRGB();
+		Bucket b = byColor.get(key);
+		if (b == null) {
+			b = new Bucket(color, stroke);
+			byColor.put(key, b);
+			order.add(b);
+		}
+		return b;
+	}
+
+	/**
+	 * Draw all collected lines, one fill and one draw per bucket, and
+	 * empty the batch.
+	 */
+	void flush(Graphics2D g2d) {
+		for (Bucket b : order) {
+			g2d.setColor(b.color);
+			if (b.fills != null) {
+				g2d.fill(b.fills);
+			}
+			g2d.setStroke(b.stroke);
+			g2d.draw(b.lines);
+		}
+		buckets.clear();
+		order.clear();
+	}
+}
@@ -0,0 +1,81 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+
+/**
+ * Tests whether the overlay of a line can be visible in the area that is
+ * being repainted. The visualization methods remove the clip before drawing,
+ * so they have to test the incoming clip themselves, before doing any
+ * data lookup or drawing for lines outside the repainted area.
+ */
+final class EdgeCulling {
+
+	/** Miter limit of the strokes handed out by StrokeCache */
+	private static final float MITER_LIMIT = 10;
+
+	private EdgeCulling() {}
+
+	/**
+	 * Returns true if the bounds of the line, including the decorations
+	 * recorded in the EdgeIndex and grown by the given margin on all sides,
+	 * intersect the clip of the graphics. Doesn't lock the index.
+	 */
+	static boolean isVisible(Line line, Graphics2D g2d, double margin) {
+		Rectangle2D b = line.getVBounds();
+		if (b == null) return true;
+		double x0 = b.getMinX(), y0 = b.getMinY();
+		double x1 = b.getMaxX(), y1 = b.getMaxY();
+		VPathway vp = line.getDrawing();
+		if (vp != null) {
+			Rectangle2D d = EdgeIndex.get(vp).getDecoration(line);
+			if (d != null) {
+				double z = vp.vFromM(1);
+				x0 = Math.min(x0, d.getMinX() * z);
+				y0 = Math.min(y0, d.getMinY() * z);
+				x1 = Math.max(x1, d.getMaxX() * z);
+				y1 = Math.max(y1, d.getMaxY() * z);
+			}
+		}
+		int x = (int) Math.floor(x0 - margin);
+		int y = (int) Math.floor(y0 - margin);
+		int w = (int) Math.ceil(x1 - x0 + 2 * margin) + 1;
+		int h = (int) Math.ceil(y1 - y0 + 2 * margin) + 1;
+		return g2d.hitClip(x, y, w, h);
+	}
+
+	/**
+	 * Returns true if the line, stroked with the given width including
+	 * its arrow heads, can touch the clip of the graphics.
+	 */
+	static boolean isStrokeVisible(Line line, Graphics2D g2d, float strokeWidth) {
+		return isVisible(line, g2d, strokeMargin(strokeWidth));
+	}
+
+	/**
+	 * Distance that a stroke of the given width, including miter joins,
+	 * may extend beyond the bounds of a line.
+	 */
+	static double strokeMargin(float strokeWidth) {
+		return strokeWidth * MITER_LIMIT / 2;
+	}
+}
@@ -0,0 +1,425 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.model.PathwayElementEvent;
+import org.pathvisio.core.model.PathwayElementListener;
+import org.pathvisio.core.model.PathwayEvent;
+import org.pathvisio.core.model.PathwayListener;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+
+/**
+ * Uniform grid over the bounds of all lines of a VPathway, answering
+ * which lines intersect a rectangle or lie near a point by only visiting
+ * the grid cells that are covered. Bounds are kept in model coordinates,
+ * so zooming doesn't invalidate the index, and include the decorations
+ * that visualization methods draw next to a line, such as bars and text.
+ * <p>
+ * Each method sets one decoration per line, replacing the one it set
+ * before. The decorations of a line can also be read without locking the
+ * index, see {@link #getDecoration(Line)}, so culling a line doesn't wait
+ * for other threads. All decorations are dropped with
+ * {@link #clearDecorations()} when a visualization is changed, and drawn
+ * again by the methods that remain.
+ * <p>
+ * Each VPathway has its own index, shared by all visualization methods,
+ * so several open pathways or pathways rendered on different threads
+ * don't replace each other's index. The index of a pathway is dropped
+ * with {@link #dispose(VPathway)} when the pathway is disposed. A line is
+ * moved to its new cells when its element is modified, and the whole
+ * index is rebuilt when lines are added or removed.
+ */
+final class EdgeIndex {
+
+	/** Size of a grid cell in model coordinates */
+	static final double CELL_SIZE = 128;
+
+	private static final Map<VPathway, EdgeIndex> indexes =
+			new ConcurrentHashMap<VPathway, EdgeIndex>();
+
+	/**
+	 * Notified when lines are moved or the index is rebuilt. Called on the
+	 * thread that queries the index, while the index is locked, so
+	 * implementations should only record the change.
+	 */
+	interface ChangeListener {
+		/**
+		 * The bounds of a line changed from oldBounds to newBounds,
+		 * both in model coordinates.
+		 */
+		void boundsChanged(Rectangle2D oldBounds, Rectangle2D newBounds);
+
+		/** Lines were added or removed */
+		void indexRebuilt();
+	}
+
+	private static final class Entry {
+		final Line line;
+		final PathwayElement element;
+		/** Bounds of the line alone */
+		Rectangle2D lineBounds;
+		/** Bounds of the line and its decorations */
+		Rectangle2D bounds;
+		int minCol, minRow, maxCol, maxRow;
+		boolean dirty;
+		int stamp;
+
+		Entry(Line line) {
+			this.line = line;
+			element = line.getPathwayElement();
+		}
+	}
+
+	private final VPathway vPathway;
+	private final Pathway pathway;
+	private final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+	private final Map<Line, Entry> entries = new IdentityHashMap<Line, Entry>();
+	private final Map<PathwayElement, Entry> byElement = new IdentityHashMap<PathwayElement, Entry>();
+	private final List<Entry> dirtyEntries = new ArrayList<Entry>();
+	private boolean rebuild = true;
+	private int stamp;
+	private final List<ChangeListener> changeListeners = new ArrayList<ChangeListener>();
+	/** Decorations of each line by owner; the maps are replaced, never modified */
+	private final ConcurrentMap<Line, Map<Object, Rectangle2D>> decorations =
+			new ConcurrentHashMap<Line, Map<Object, Rectangle2D>>();
+	/** Union of the decorations of each line */
+	private final ConcurrentMap<Line, Rectangle2D> decorationBounds =
+			new ConcurrentHashMap<Line, Rectangle2D>();
+
+	private final PathwayElementListener elementListener = new PathwayElementListener() {
+		@Override
+		public void gmmlObjectModified(PathwayElementEvent e) {
+			synchronized (EdgeIndex.this) {
+				Entry entry = byElement.get(e.getModifiedPathwayElement());
+				if (entry != null && !entry.dirty) {
+					entry.dirty = true;
+					dirtyEntries.add(entry);
+				}
+			}
+		}
+	};
+
+	private final PathwayListener pathwayListener = new PathwayListener() {
+		@Override
+		public void pathwayModified(PathwayEvent e) {
+			if (e.getType() == PathwayEvent.ADDED || e.getType() == PathwayEvent.DELETED) {
+				synchronized (EdgeIndex.this) {
+					rebuild = true;
+				}
+			}
+		}
+	};
+
+	private EdgeIndex(VPathway vPathway) {
+		this.vPathway = vPathway;
+		pathway = vPathway.getPathwayModel();
+		if (pathway != null) {
+			pathway.addListener(pathwayListener);
+		}
+	}
+
+	/**
+	 * Get the index of the lines on the given pathway, creating it
+	 * when the pathway is first drawn.
+	 */
+	static EdgeIndex get(VPathway vp) {
+		EdgeIndex index = indexes.get(vp);
+		if (index == null) {
+			synchronized (indexes) {
+				index = indexes.get(vp);
+				if (index == null) {
+					index = new EdgeIndex(vp);
+					indexes.put(vp, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Drop the index of the given pathway, e.g. when the pathway is
+	 * disposed. The index stops listening to the pathway; a later call
+	 * to {@link #get(VPathway)} creates a new one.
+	 */
+	static void dispose(VPathway vp) {
+		EdgeIndex index;
+		synchronized (indexes) {
+			index = indexes.remove(vp);
+		}
+		if (index != null) {
+			index.dispose();
+		}
+	}
+
+	/**
+	 * Stop listening to the pathway and its elements
+	 */
+	private synchronized void dispose() {
+		if (pathway != null) {
+			pathway.removeListener(pathwayListener);
+		}
+		for (PathwayElement pe : byElement.keySet()) {
+			pe.removeListener(elementListener);
+		}
+		cells.clear();
+		entries.clear();
+		byElement.clear();
+		dirtyEntries.clear();
+		changeListeners.clear();
+		decorations.clear();
+		decorationBounds.clear();
+		rebuild = true;
+	}
+
+	/**
+	 * Drop the decorations of all lines of all pathways, e.g. when a method
+	 * was removed or its settings changed. The methods that remain set
+	 * them again when they draw the lines.
+	 */
+	static void clearDecorations() {
+		for (EdgeIndex index : indexes.values()) {
+			index.clearAll();
+		}
+	}
+
+	private synchronized void clearAll() {
+		if (decorations.isEmpty()) return;
+		List<Line> lines = new ArrayList<Line>(decorations.keySet());
+		decorations.clear();
+		decorationBounds.clear();
+		for (Line l : lines) {
+			Entry e = entries.get(l);
+			if (e != null) {
+				reindex(e);
+			}
+		}
+	}
+
+	synchronized void addChangeListener(ChangeListener l) {
+		changeListeners.add(l);
+	}
+
+	synchronized void removeChangeListener(ChangeListener l) {
+		changeListeners.remove(l);
+	}
+
+	/**
+	 * Process the modifications of the pathway since the last query,
+	 * notifying the change listeners.
+	 */
+	synchronized void refresh() {
+		update();
+	}
+
+	/**
+	 * All lines whose bounds, including decorations, intersect the given
+	 * rectangle in view coordinates.
+	 */
+	synchronized List<Line> query(Rectangle2D vRect) {
+		update();
+		double x0 = vPathway.mFromV(vRect.getMinX());
+		double y0 = vPathway.mFromV(vRect.getMinY());
+		double x1 = vPathway.mFromV(vRect.getMaxX());
+		double y1 = vPathway.mFromV(vRect.getMaxY());
+
+		List<Line> result = new ArrayList<Line>();
+		int s = ++stamp;
+		for (int col = cell(x0); col <= cell(x1); col++) {
+			for (int row = cell(y0); row <= cell(y1); row++) {
+				List<Entry> l = cells.get(key(col, row));
+				if (l == null) continue;
+				for (Entry e : l) {
+					if (e.stamp == s) continue;
+					e.stamp = s;
+					Rectangle2D b = e.bounds;
+					if (b.getMaxX() >= x0 && b.getMinX() <= x1
+							&& b.getMaxY() >= y0 && b.getMinY() <= y1) {
+						result.add(e.line);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The union of the decorations of the given line in model coordinates,
+	 * or null if it has none. Doesn't lock the index.
+	 */
+	Rectangle2D getDecoration(Line line) {
+		return decorationBounds.get(line);
+	}
+
+	/**
+	 * The decoration the given owner set for a line in model coordinates,
+	 * or null if it set none. Doesn't lock the index.
+	 */
+	Rectangle2D getDecoration(Object owner, Line line) {
+		Map<Object, Rectangle2D> d = decorations.get(line);
+		return d == null ? null : d.get(owner);
+	}
+
+	/**
+	 * Set the area of what the given owner draws next to a line, in view
+	 * coordinates, replacing the area it set before. Returns at once if
+	 * the area didn't change, so it can be called on every paint.
+	 * Decorations are dropped when the line is modified, until they are
+	 * drawn again.
+	 */
+	void setDecoration(Object owner, Line line, Rectangle2D vBounds) {
+		Rectangle2D m = new Rectangle2D.Double(
+				vPathway.mFromV(vBounds.getX()), vPathway.mFromV(vBounds.getY()),
+				vPathway.mFromV(vBounds.getWidth()), vPathway.mFromV(vBounds.getHeight()));
+		Map<Object, Rectangle2D> d = decorations.get(line);
+		if (d != null && m.equals(d.get(owner))) return;
+
+		synchronized (this) {
+			update();
+			Entry e = entries.get(line);
+			if (e == null) return;
+			d = decorations.get(line);
+			Map<Object, Rectangle2D> changed = d == null
+					? new IdentityHashMap<Object, Rectangle2D>(2)
+					: new IdentityHashMap<Object, Rectangle2D>(d);
+			changed.put(owner, m);
+			decorations.put(line, changed);
+			reindex(e);
+		}
+	}
+
+	/**
+	 * Recompute the bounds of a line from its own bounds and decorations
+	 * and move it to its new cells.
+	 */
+	private void reindex(Entry e) {
+		Rectangle2D b = e.lineBounds;
+		Map<Object, Rectangle2D> d = decorations.get(e.line);
+		if (d == null) {
+			decorationBounds.remove(e.line);
+		} else {
+			Rectangle2D u = null;
+			for (Rectangle2D r : d.values()) {
+				u = u == null ? r : u.createUnion(r);
+			}
+			decorationBounds.put(e.line, u);
+			b = b.createUnion(u);
+		}
+		remove(e);
+		e.bounds = b;
+		insert(e);
+	}
+
+	private void update() {
+		if (rebuild) {
+			rebuild();
+		} else if (!dirtyEntries.isEmpty()) {
+			for (Entry e : dirtyEntries) {
+				Rectangle2D old = e.bounds;
+				remove(e);
+				e.dirty = false;
+				decorations.remove(e.line);
+				decorationBounds.remove(e.line);
+				setLineBounds(e);
+				insert(e);
+				for (ChangeListener l : changeListeners) {
+					l.boundsChanged(old, e.bounds);
+				}
+			}
+			dirtyEntries.clear();
+		}
+	}
+
+	private void rebuild() {
+		for (PathwayElement pe : byElement.keySet()) {
+			pe.removeListener(elementListener);
+		}
+		cells.clear();
+		entries.clear();
+		byElement.clear();
+		dirtyEntries.clear();
+		decorations.clear();
+		decorationBounds.clear();
+		for (Line line : EdgeRenderPlan.getLines(vPathway)) {
+			Entry e = new Entry(line);
+			setLineBounds(e);
+			entries.put(line, e);
+			byElement.put(e.element, e);
+			e.element.addListener(elementListener);
+			insert(e);
+		}
+		rebuild = false;
+		for (ChangeListener l : changeListeners) {
+			l.indexRebuilt();
+		}
+	}
+
+	private static void setLineBounds(Entry e) {
+		Rectangle2D b = e.element.getMBounds();
+		e.lineBounds = b == null ? new Rectangle2D.Double() : b;
+		e.bounds = e.lineBounds;
+	}
+
+	private void insert(Entry e) {
+		Rectangle2D b = e.bounds;
+		e.minCol = cell(b.getMinX());
+		e.minRow = cell(b.getMinY());
+		e.maxCol = cell(b.getMaxX());
+		e.maxRow = cell(b.getMaxY());
+		for (int col = e.minCol; col <= e.maxCol; col++) {
+			for (int row = e.minRow; row <= e.maxRow; row++) {
+				Long k = key(col, row);
+				List<Entry> l = cells.get(k);
+				if (l == null) {
+					l = new ArrayList<Entry>(4);
+					cells.put(k, l);
+				}
+				l.add(e);
+			}
+		}
+	}
+
+	private void remove(Entry e) {
+		for (int col = e.minCol; col <= e.maxCol; col++) {
+			for (int row = e.minRow; row <= e.maxRow; row++) {
+				List<Entry> l = cells.get(key(col, row));
+				if (l != null) {
+					l.remove(e);
+				}
+			}
+		}
+	}
+
+	private static int cell(double m) {
+		return (int) Math.floor(m / CELL_SIZE);
+	}
+
+	private static Long key(int col, int row) {
+		return ((long) col << 32) | (row & 0xffffffffL);
+	}
+}
@@ -0,0 +1,310 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.pathvisio.core.view.ArrowShape;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.core.view.VPathwayElement;
+import org.pathvisio.desktop.gex.CachedData;
+
+/**
+ * Precomputed drawing instructions for every Line of a VPathway: the
+ * color (also used for the arrow heads) and the stroke width of each line,
+ * stored in primitive arrays indexed by the line's position in the plan.
+ * <p>
+ * A plan is computed up front for all lines by a visualization method and
+ * only rebuilt when the settings, the data or the set of lines change, so
+ * painting a line is reduced to an array lookup. Entries whose data arrives
+ * later are marked stale and recomputed one by one. Lines marked stale
+ * from a cache callback are queued and only applied to the entries on the
+ * thread that reads them, so the entries are never written concurrently
+ * with their reader.
+ */
+final class EdgeRenderPlan {
+
+	/** Nothing to draw for this line */
+	static final byte NO_DATA = 0;
+	/** Data for this line is being loaded */
+	static final byte PENDING = 1;
+	/** Data for this line has arrived, the entry needs to be recomputed */
+	static final byte STALE = 2;
+	/** Color and width are available */
+	static final byte READY = 3;
+
+	/**
+	 * Computes the entry for one line of a plan.
+	 */
+	interface Resolver {
+		void resolve(EdgeRenderPlan plan, int index);
+	}
+
+	/**
+	 * Draws a single line with the given color and width.
+	 */
+	interface LinePainter {
+		void paint(Graphics2D g2d, Line line, Color color, float width);
+	}
+
+	private final VPathway vPathway;
+	private final CachedData cachedData;
+	private final int xrefVersion;
+	private final Line[] lines;
+	private final Map<Line, Integer> ordinals;
+	private final int[] colors;
+	private final float[] widths;
+	private final byte[] states;
+	private final Color[] paints;
+	/** Lines marked stale on other threads, applied by the reading thread */
+	private final Queue<Integer> staleLines = new ConcurrentLinkedQueue<Integer>();
+	private volatile float maxWidth;
+	private volatile boolean incomplete;
+
+	EdgeRenderPlan(VPathway vPathway, CachedData cachedData) {
+		this.vPathway = vPathway;
+		this.cachedData = cachedData;
+		xrefVersion = XrefCache.getVersion();
+		List<Line> l = getLines(vPathway);
+		lines = l.toArray(new Line[l.size()]);
+		ordinals = new IdentityHashMap<Line, Integer>(lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			ordinals.put(lines[i], i);
+		}
+		colors = new int[lines.length];
+		widths = new float[lines.length];
+		states = new byte[lines.length];
+		paints = new Color[lines.length];
+	}
+
+	/**
+	 * All lines on the given VPathway, in drawing object order.
+	 */
+	static List<Line> getLines(VPathway vp) {
+		List<Line> result = new ArrayList<Line>();
+		if (vp != null) {
+			for (VPathwayElement e : vp.getDrawingObjects()) {
+				if (e instanceof Line) {
+					result.add((Line) e);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if this plan was made for the given pathway and data cache,
+	 * no element identifiers have been edited since and no lines were found
+	 * missing.
+	 */
+	boolean isValidFor(VPathway vp, CachedData cache) {
+		return !incomplete && vp == vPathway && cache == cachedData
+				&& xrefVersion == XrefCache.getVersion();
+	}
+
+	/**
+	 * Compute the entries of all lines
+	 */
+	void resolveAll(Resolver resolver) {
+		for (int i = 0; i < lines.length; i++) {
+			resolver.resolve(this, i);
+		}
+	}
+
+	/**
+	 * Draw all lines that may touch the given area in view coordinates,
+	 * looked up in the EdgeIndex. Stale entries are recomputed first.
+	 */
+	void paintArea(Graphics2D g2d, Rectangle area, Resolver resolver, LinePainter painter) {
+		applyStale();
+		double m = EdgeCulling.strokeMargin(maxWidth);
+		Rectangle2D r = new Rectangle2D.Double(area.x - m, area.y - m,
+				area.width + 2 * m, area.height + 2 * m);
+		for (Line l : EdgeIndex.get(vPathway).query(r)) {
+			int i = indexOf(l);
+			if (i < 0) {
+				// added after the plan was made, draw it in the next pass
+				markIncomplete();
+				l.markDirty();
+				continue;
+			}
+			if (states[i] == STALE) {
+				resolver.resolve(this, i);
+			}
+			if (states[i] == READY) {
+				painter.paint(g2d, l, getPaint(i), widths[i]);
+			}
+		}
+	}
+
+	VPathway getVPathway() { return vPathway; }
+	CachedData getCachedData() { return cachedData; }
+	int size() { return lines.length; }
+	Line getLine(int index) { return lines[index]; }
+
+	/**
+	 * Position of the given line in this plan, or -1 if the line
+	 * was not part of the pathway when the plan was made.
+	 */
+	int indexOf(Line line) {
+		Integer i = ordinals.get(line);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Store the color and width for a line and mark it ready to draw.
+	 * Different entries may be set on different threads.
+	 */
+	void set(int index, int rgb, float width) {
+		colors[index] = rgb;
+		widths[index] = width;
+		if (width > maxWidth) {
+			raiseMaxWidth(width);
+		}
+		Color p = paints[index];
+		if (p == null || p.getRGB() != rgb) {
+			paints[index] = null;
+		}
+		states[index] = READY;
+	}
+
+	private synchronized void raiseMaxWidth(float width) {
+		if (width > maxWidth) {
+			maxWidth = width;
+		}
+	}
+
+	void setState(int index, byte state) {
+		states[index] = state;
+	}
+
+	byte getState(int index) {
+		applyStale();
+		return states[index];
+	}
+
+	/**
+	 * Mark the entry of a line for recomputation, e.g. when its data
+	 * has been loaded. May be called from any thread; the entry is changed
+	 * when the plan is next read.
+	 */
+	void markStale(int index) {
+		staleLines.add(index);
+	}
+
+	private void applyStale() {
+		Integer i;
+		while ((i = staleLines.poll()) != null) {
+			states[i] = STALE;
+		}
+	}
+
+	/**
+	 * Mark the plan for rebuilding, e.g. when a line was drawn that
+	 * was added to the pathway after the plan was made.
+	 */
+	void markIncomplete() {
+		incomplete = true;
+	}
+
+	/**
+	 * Copy the entries of all lines to the given arrays, starting at the
+	 * given offset, e.g. to keep them as a frame of an animation.
+	 */
+	void saveEntries(int[] c, float[] w, byte[] s, int offset) {
+		applyStale();
+		System.arraycopy(colors, 0, c, offset, lines.length);
+		System.arraycopy(widths, 0, w, offset, lines.length);
+		System.arraycopy(states, 0, s, offset, lines.length);
+	}
+
+	/**
+	 * Replace the entries of all lines with those saved by
+	 * {@link #saveEntries(int[], float[], byte[], int)}.
+	 */
+	void loadEntries(int[] c, float[] w, byte[] s, int offset) {
+		System.arraycopy(c, offset, colors, 0, lines.length);
+		System.arraycopy(w, offset, widths, 0, lines.length);
+		System.arraycopy(s, offset, states, 0, lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			if (widths[i] > maxWidth) {
+				raiseMaxWidth(widths[i]);
+			}
+			Color p = paints[i];
+			if (p != null && p.getRGB() != colors[i]) {
+				paints[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * The area a line covers when it is drawn with its width, grown by a
+	 * pixel on all sides for antialiasing, or null if the line isn't ready
+	 * to draw.
+	 *
+	 * @param heads include the arrow heads
+	 */
+	Shape getShape(int index, boolean heads) {
+		if (getState(index) != READY) return null;
+		Line l = lines[index];
+		BasicStroke s = StrokeCache.getSolidStroke(widths[index] + 2);
+		Area a = new Area(s.createStrokedShape(l.getVConnectorAdjusted()));
+		if (heads) {
+			for (ArrowShape arrow : l.getVHeadsAdjusted()) {
+				if (arrow == null) continue;
+				a.add(new Area(s.createStrokedShape(arrow.getShape())));
+				if (arrow.getFillType() == ArrowShape.FillType.CLOSED) {
+					a.add(new Area(arrow.getShape()));
+				}
+			}
+		}
+		return a;
+	}
+
+	int getColor(int index) { return colors[index]; }
+	float getWidth(int index) { return widths[index]; }
+
+	/**
+	 * Largest stroke width of all entries
+	 */
+	float getMaxWidth() { return maxWidth; }
+
+	/**
+	 * The color of a line as Color object, created once per entry.
+	 */
+	Color getPaint(int index) {
+		Color p = paints[index];
+		if (p == null) {
+			p = new Color(colors[index], true);
+			paints[index] = p;
+		}
+		return p;
+	}
+}
@@ -0,0 +1,109 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Rectangle2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used cache of laid out text. For each
+ * (text, font, font render context) the glyphs and their bounds are
+ * computed once, so drawing the same value again only needs a
+ * drawGlyphVector call.
+ */
+final class GlyphCache {
+
+	/**
+	 * Laid out text and its visual bounds
+	 */
+	static final class Glyphs {
+		private final GlyphVector glyphVector;
+		private final Rectangle2D bounds;
+
+		Glyphs(GlyphVector glyphVector) {
+			this.glyphVector = glyphVector;
+			this.bounds = glyphVector.getVisualBounds();
+		}
+
+		GlyphVector getGlyphVector() { return glyphVector; }
+		Rectangle2D getBounds() { return bounds; }
+	}
+
+	private static final class Key {
+		private final String text;
+		private final Font font;
+		private final FontRenderContext frc;
+		private final int hash;
+
+		Key(String text, Font font, FontRenderContext frc) {
+			this.text = text;
+			this.font = font;
+			this.frc = frc;
+			hash = (text.hashCode() * 31 + font.hashCode()) * 31 + frc.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && text.equals(k.text)
+					&& font.equals(k.font) && frc.equals(k.frc);
+		}
+	}
+
+	private final Map<Key, Glyphs> entries;
+
+	/**
+	 * @param maxEntries the maximum number of texts to keep
+	 */
+	GlyphCache(final int maxEntries) {
+		entries = new LinkedHashMap<Key, Glyphs>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Glyphs> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Get the glyphs for the given text, laying it out if it isn't cached.
+	 */
+	synchronized Glyphs get(String text, Font font, FontRenderContext frc) {
+		Key key = new Key(text, font, frc);
+		Glyphs g = entries.get(key);
+		if (g == null) {
+			g = new Glyphs(font.createGlyphVector(frc, text));
+			entries.put(key, g);
+		}
+		return g;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+}
@@ -22,6 +22,9 @@ import javax.swing.AbstractAction;
 import javax.swing.AbstractListModel;
 import javax.swing.ComboBoxModel;
 
+import org.pathvisio.core.ApplicationEvent;
+import org.pathvisio.core.Engine;
+import org.pathvisio.core.view.VPathway;
 import org.pathvisio.desktop.PvDesktop;
 import org.pathvisio.desktop.gex.GexManager.GexManagerEvent;
 import org.pathvisio.desktop.gex.GexManager.GexManagerListener;
@@ -43,6 +46,49 @@ import org.pathvisio.intviz.gui.EdgeVisualizationDialog;
 public class IntVizPlugin implements Plugin{
 	private PvDesktop desktop;
 	private VisualizationComboModel model;
+	private DataPrefetcher prefetcher;
+	private final Engine.ApplicationEventListener disposeListener = new Engine.ApplicationEventListener() {
+		@Override
+		public void applicationEvent(ApplicationEvent e) {
+			if (e.getType() == ApplicationEvent.Type.VPATHWAY_DISPOSED
+					&& e.getSource() instanceof VPathway) {
+				EdgeIndex.dispose((VPathway) e.getSource());
+			}
+		}
+	};
+	/**
+	 * Methods that were removed or reconfigured leave their decorations
+	 * in the EdgeIndex; drop them all, the remaining methods set theirs
+	 * again on the next paint. Color sets are edited in place, so the
+	 * render plans still hold the colors of the old color set; drop them
+	 * when a color set changes.
+	 */
+	private final VisualizationManager.VisualizationListener visualizationListener = new VisualizationManager.VisualizationListener() {
+		@Override
+		public void visualizationEvent(VisualizationEvent e) {
+			switch (e.getType()) {
+			case VisualizationEvent.VISUALIZATION_REMOVED:
+			case VisualizationEvent.VISUALIZATION_MODIFIED:
+			case VisualizationEvent.VISUALIZATION_SELECTED:
+				EdgeIndex.clearDecorations();
+				return;
+			case VisualizationEvent.COLORSET_MODIFIED:
+				break;
+			default:
+				return;
+			}
+			for (Visualization v : desktop.getVisualizationManager().getVisualizations()) {
+				VisualizationMethod m = v.getMethod(ColorByLine.class.toString());
+				if (m instanceof ColorByLine) {
+					((ColorByLine) m).settingsChanged();
+				}
+				m = v.getMethod(MultiTimeByLine.class.toString());
+				if (m instanceof MultiTimeByLine) {
+					((MultiTimeByLine) m).settingsChanged();
+				}
+			}
+		}
+	};
 
 	@Override
 	public void init(PvDesktop aDesktop)
@@ -118,6 +164,22 @@ public class IntVizPlugin implements Plugin{
 					}
 				});
 
+		/**
+		 * Load the data of all interactions when a pathway is opened
+		 */
+		prefetcher = new DataPrefetcher(aDesktop.getGexManager(),
+				aDesktop.getSwingEngine().getEngine());
+
+		/**
+		 * Drop the line index of a pathway when it is closed
+		 */
+		aDesktop.getSwingEngine().getEngine().addApplicationEventListener(disposeListener);
+
+		/**
+		 * Recompute the line colors when a color set is edited
+		 */
+		aDesktop.getVisualizationManager().addListener(visualizationListener);
+
 		/**
 		 * Register the IntViz plugin in the menu bar
 		 */
@@ -129,6 +191,9 @@ public class IntVizPlugin implements Plugin{
 	@Override
 	public void done()
 	{
+		prefetcher.dispose();
+		desktop.getSwingEngine().getEngine().removeApplicationEventListener(disposeListener);
+		desktop.getVisualizationManager().removeListener(visualizationListener);
 		model.dispose();
 	};
 
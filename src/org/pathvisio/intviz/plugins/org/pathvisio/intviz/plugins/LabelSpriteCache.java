@@ -0,0 +1,191 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of pre-rendered text labels. Each distinct
+ * (text, font, color) is rasterized once per scale bucket of the target
+ * graphics into a translucent image, which is then blitted instead of
+ * laying out and rasterizing the text again. The cache is bounded by the
+ * total number of pixels of the stored images.
+ */
+final class LabelSpriteCache {
+
+	/** Transparent border around the text, so anti-aliased edges aren't cut */
+	private static final int PADDING = 2;
+	/** Number of scale buckets per unit of scale */
+	private static final int BUCKETS_PER_UNIT = 4;
+
+	/**
+	 * A rendered label and its position relative to the text baseline
+	 */
+	static final class Sprite {
+		private final BufferedImage image;
+		private final double offsetX;
+		private final double offsetY;
+		private final double scale;
+
+		Sprite(BufferedImage image, double offsetX, double offsetY, double scale) {
+			this.image = image;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.scale = scale;
+		}
+
+		/**
+		 * Draw the label with its baseline starting at the given point.
+		 */
+		void draw(Graphics2D g2d, double x, double y) {
+			if (scale == 1) {
+				g2d.drawImage(image, (int) Math.round(x + offsetX), (int) Math.round(y + offsetY), null);
+			} else {
+				AffineTransform at = AffineTransform.getTranslateInstance(x + offsetX, y + offsetY);
+				at.scale(1 / scale, 1 / scale);
+				g2d.drawImage(image, at, null);
+			}
+		}
+
+		int getPixels() {
+			return image.getWidth() * image.getHeight();
+		}
+	}
+
+	private static final class Key {
+		private final String text;
+		private final Font font;
+		private final int rgb;
+		private final int bucket;
+		private final boolean antiAliased;
+		private final int hash;
+
+		Key(String text, Font font, int rgb, int bucket, boolean antiAliased) {
+			this.text = text;
+			this.font = font;
+			this.rgb = rgb;
+			this.bucket = bucket;
+			this.antiAliased = antiAliased;
+			hash = ((text.hashCode() * 31 + font.hashCode()) * 31 + rgb) * 31 + bucket * 2 + (antiAliased ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && rgb == k.rgb && bucket == k.bucket
+					&& antiAliased == k.antiAliased
+					&& text.equals(k.text) && font.equals(k.font);
+		}
+	}
+
+	private final Map<Key, Sprite> entries = new LinkedHashMap<Key, Sprite>(16, 0.75f, true);
+	private final int maxPixels;
+	private int pixels;
+
+	/**
+	 * @param maxPixels the maximum total number of pixels of all sprites
+	 */
+	LabelSpriteCache(int maxPixels) {
+		this.maxPixels = maxPixels;
+	}
+
+	/**
+	 * Get the sprite for the given label as it would be drawn on the given
+	 * graphics, rendering it if it isn't cached.
+	 */
+	synchronized Sprite get(String text, Font font, Color color, Graphics2D g2d) {
+		AffineTransform tx = g2d.getTransform();
+		double deviceScale = Math.sqrt(Math.abs(tx.getDeterminant()));
+		int bucket = Math.max(1, (int) Math.round(deviceScale * BUCKETS_PER_UNIT));
+		boolean aa = g2d.getFontRenderContext().isAntiAliased();
+
+		Key key = new Key(text, font, color.getRGB(), bucket, aa);
+		Sprite s = entries.get(key);
+		if (s == null) {
+			s = render(text, font, color, (double) bucket / BUCKETS_PER_UNIT, g2d);
+			entries.put(key, s);
+			pixels += s.getPixels();
+			evict();
+		}
+		return s;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		pixels = 0;
+	}
+
+	private void evict() {
+		Iterator<Sprite> it = entries.values().iterator();
+		// always keep the sprite that was just added
+		while (pixels > maxPixels && entries.size() > 1) {
+			pixels -= it.next().getPixels();
+			it.remove();
+		}
+	}
+
+	private static Sprite render(String text, Font font, Color color, double scale, Graphics2D target) {
+		Rectangle2D bounds = font.getStringBounds(text, target.getFontRenderContext());
+		int w = (int) Math.ceil(bounds.getWidth() * scale) + 2 * PADDING;
+		int h = (int) Math.ceil(bounds.getHeight() * scale) + 2 * PADDING;
+
+		GraphicsConfiguration gc = target.getDeviceConfiguration();
+		BufferedImage img = gc == null
+				? new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB)
+				: gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+
+		Graphics2D g = img.createGraphics();
+		try {
+			copyHint(target, g, RenderingHints.KEY_TEXT_ANTIALIASING);
+			copyHint(target, g, RenderingHints.KEY_FRACTIONALMETRICS);
+			g.translate(PADDING, PADDING);
+			g.scale(scale, scale);
+			g.setFont(font);
+			g.setColor(color);
+			g.drawString(text, (float) -bounds.getX(), (float) -bounds.getY());
+		} finally {
+			g.dispose();
+		}
+
+		double pad = PADDING / scale;
+		return new Sprite(img, bounds.getX() - pad, bounds.getY() - pad, scale);
+	}
+
+	private static void copyHint(Graphics2D from, Graphics2D to, RenderingHints.Key key) {
+		Object value = from.getRenderingHint(key);
+		if (value != null) {
+			to.setRenderingHint(key, value);
+		}
+	}
+}
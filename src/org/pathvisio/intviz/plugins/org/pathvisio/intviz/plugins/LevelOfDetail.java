@@ -0,0 +1,186 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Component;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.jdom.Element;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.gui.dialogs.OkCancelDialog;
+
+import com.jgoodies.forms.builder.DefaultFormBuilder;
+import com.jgoodies.forms.layout.FormLayout;
+
+/**
+ * Immutable level-of-detail policy: the zoom percentages below which a
+ * visualization method leaves out details that can't be read anyway.
+ * Below the text threshold no text is drawn, below the bar threshold bars
+ * are collapsed into a single averaged color and below the head threshold
+ * lines are drawn without arrow heads. All thresholds default to zero, so
+ * nothing is left out until the user opts in.
+ */
+final class LevelOfDetail {
+
+	/** Show the text threshold in the configuration panel */
+	static final int TEXT = 1;
+	/** Show the bar threshold in the configuration panel */
+	static final int BARS = 2;
+	/** Show the arrow head threshold in the configuration panel */
+	static final int HEADS = 4;
+
+	static final LevelOfDetail DEFAULT = new LevelOfDetail(0, 0, 0);
+
+	static final String XML_ELEMENT = "level-of-detail";
+	static final String XML_ATTR_TEXT = "minTextZoom";
+	static final String XML_ATTR_BARS = "minBarZoom";
+	static final String XML_ATTR_HEADS = "minHeadZoom";
+
+	/**
+	 * Notified when the policy is changed in the configuration panel
+	 */
+	interface Listener {
+		void levelOfDetailChanged(LevelOfDetail lod);
+	}
+
+	private final double minTextZoom;
+	private final double minBarZoom;
+	private final double minHeadZoom;
+
+	/**
+	 * @param minTextZoom zoom percentage below which no text is drawn
+	 * @param minBarZoom zoom percentage below which bars are collapsed
+	 * @param minHeadZoom zoom percentage below which arrow heads are left out
+	 */
+	LevelOfDetail(double minTextZoom, double minBarZoom, double minHeadZoom) {
+		this.minTextZoom = minTextZoom;
+		this.minBarZoom = minBarZoom;
+		this.minHeadZoom = minHeadZoom;
+	}
+
+	double getMinTextZoom() { return minTextZoom; }
+	double getMinBarZoom() { return minBarZoom; }
+	double getMinHeadZoom() { return minHeadZoom; }
+
+	boolean showText(VPathway vp) {
+		return vp == null || getZoomPercent(vp) >= minTextZoom;
+	}
+
+	boolean showBars(VPathway vp) {
+		return vp == null || getZoomPercent(vp) >= minBarZoom;
+	}
+
+	boolean showHeads(VPathway vp) {
+		return vp == null || getZoomPercent(vp) >= minHeadZoom;
+	}
+
+	private static double getZoomPercent(VPathway vp) {
+		return vp.vFromM(100);
+	}
+
+	Element toXML() {
+		Element elm = new Element(XML_ELEMENT);
+		elm.setAttribute(XML_ATTR_TEXT, Double.toString(minTextZoom));
+		elm.setAttribute(XML_ATTR_BARS, Double.toString(minBarZoom));
+		elm.setAttribute(XML_ATTR_HEADS, Double.toString(minHeadZoom));
+		return elm;
+	}
+
+	/**
+	 * Read the policy from the level-of-detail child of the given element.
+	 * Returns the fallback if there is no such child or it can't be parsed.
+	 */
+	static LevelOfDetail fromXML(Element parent, LevelOfDetail fallback) {
+		Element elm = parent.getChild(XML_ELEMENT);
+		if (elm == null) return fallback;
+		try {
+			return new LevelOfDetail(
+					parse(elm.getAttributeValue(XML_ATTR_TEXT), fallback.minTextZoom),
+					parse(elm.getAttributeValue(XML_ATTR_BARS), fallback.minBarZoom),
+					parse(elm.getAttributeValue(XML_ATTR_HEADS), fallback.minHeadZoom));
+		} catch (NumberFormatException e) {
+			Logger.log.error("Invalid level of detail settings", e);
+			return fallback;
+		}
+	}
+
+	private static double parse(String value, double fallback) {
+		return value == null ? fallback : Double.parseDouble(value);
+	}
+
+	/**
+	 * Show a dialog to edit the thresholds selected by the given flags.
+	 * Changes are passed on to the listener immediately, so they can be
+	 * previewed; when the dialog is cancelled the given policy is passed
+	 * on again.
+	 */
+	static void showDialog(Component parent, LevelOfDetail lod, int flags, Listener listener) {
+		OkCancelDialog dlg = new OkCancelDialog(null, "Level of detail", parent, true, false);
+		dlg.setDialogComponent(createPanel(lod, flags, listener));
+		dlg.pack();
+		dlg.setVisible(true);
+		if (!OkCancelDialog.OK.equals(dlg.getExitCode())) {
+			listener.levelOfDetailChanged(lod);
+		}
+	}
+
+	private static JPanel createPanel(LevelOfDetail lod, int flags, final Listener listener) {
+		final JSpinner text = createSpinner(lod.minTextZoom);
+		final JSpinner bars = createSpinner(lod.minBarZoom);
+		final JSpinner heads = createSpinner(lod.minHeadZoom);
+
+		ChangeListener l = new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				listener.levelOfDetailChanged(new LevelOfDetail(
+						((Number) text.getValue()).doubleValue(),
+						((Number) bars.getValue()).doubleValue(),
+						((Number) heads.getValue()).doubleValue()));
+			}
+		};
+
+		DefaultFormBuilder builder = new DefaultFormBuilder(new FormLayout("pref, 4dlu, pref, 4dlu, pref", ""));
+		builder.setDefaultDialogBorder();
+		if ((flags & TEXT) != 0) {
+			text.addChangeListener(l);
+			builder.append("Hide text below zoom: ", text, new JLabel("%"));
+			builder.nextLine();
+		}
+		if ((flags & BARS) != 0) {
+			bars.addChangeListener(l);
+			builder.append("Average bars below zoom: ", bars, new JLabel("%"));
+			builder.nextLine();
+		}
+		if ((flags & HEADS) != 0) {
+			heads.addChangeListener(l);
+			builder.append("Hide arrow heads below zoom: ", heads, new JLabel("%"));
+			builder.nextLine();
+		}
+		return builder.getPanel();
+	}
+
+	private static JSpinner createSpinner(double value) {
+		return new JSpinner(new SpinnerNumberModel(value, 0, 1000, 5));
+	}
+}
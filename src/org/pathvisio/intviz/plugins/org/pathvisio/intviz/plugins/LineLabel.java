@@ -28,6 +28,7 @@ import java.awt.geom.Rectangle2D;
 
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
@@ -56,12 +57,18 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 	static final String DISPLAY_ID = "Identifier";
 	static final String DISPLAY_LABEL = "Text label";
 	static final String ACTION_APPEARANCE = "Appearance...";
+	static final String ACTION_DETAIL = "Level of detail...";
+	static final int SPRITE_CACHE_PIXELS = 4 * 1024 * 1024;
 
 	static final Font DEFAULT_FONT = new Font("Arial narrow", Font.PLAIN, 10);
 	String display = DISPLAY_LABEL;
 	boolean adaptFontSize;
 	Font font;
 	Color fontColor;
+	boolean useSprites;
+	LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
+
+	private final LabelSpriteCache sprites = new LabelSpriteCache(SPRITE_CACHE_PIXELS);
 
 	public LineLabel() {
 		setIsConfigurable(true);
@@ -82,7 +89,7 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 	public JPanel getConfigurationPanel() {
 		JPanel panel = new JPanel();
 		FormLayout layout = new FormLayout(
-				"pref, 4dlu, pref, 4dlu, pref, 8dlu, pref",
+				"pref, 4dlu, pref, 4dlu, pref, 8dlu, pref, 4dlu, pref, 8dlu, pref",
 				"pref"
 				);
 		panel.setLayout(layout);
@@ -102,11 +109,27 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 		appearance.setActionCommand(ACTION_APPEARANCE);
 		appearance.addActionListener(this);
 
+		JButton detail = new JButton(ACTION_DETAIL);
+		detail.setActionCommand(ACTION_DETAIL);
+		detail.addActionListener(this);
+
+		final JCheckBox spriteCheck = new JCheckBox("Cache rendered labels");
+		spriteCheck.setToolTipText("Draw labels from pre-rendered images, faster for large pathways");
+		spriteCheck.setSelected(useSprites);
+		spriteCheck.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				setUseSprites(spriteCheck.isSelected());
+			}
+		});
+
 		CellConstraints cc = new CellConstraints();
 		panel.add(new JLabel("Display: "), cc.xy(1, 1));
 		panel.add(radioLabel, cc.xy(3, 1));
 		panel.add(radioId, cc.xy(5, 1));
 		panel.add(appearance, cc.xy(7, 1));
+		panel.add(detail, cc.xy(9, 1));
+		panel.add(spriteCheck, cc.xy(11, 1));
 
 		//Initial values
 		if(DISPLAY_ID.equals(display)) {
@@ -129,9 +152,22 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 			optionsDlg.setDialogComponent(createAppearancePanel());
 			optionsDlg.pack();
 			optionsDlg.setVisible(true);
+		} else if(ACTION_DETAIL.equals(action)) {
+			LevelOfDetail.showDialog((Component)e.getSource(), levelOfDetail, LevelOfDetail.TEXT,
+					new LevelOfDetail.Listener() {
+				@Override
+				public void levelOfDetailChanged(LevelOfDetail lod) {
+					setLevelOfDetail(lod);
+				}
+			});
 		}
 	}
 
+	void setLevelOfDetail(LevelOfDetail lod) {
+		levelOfDetail = lod;
+		modified();
+	}
+
 	JPanel createAppearancePanel() {
 		final JLabel preview = new JLabel(getFont().getFamily());
 		preview.setOpaque(true);
@@ -180,8 +216,13 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 			String label = getLabelText((Line) g);
 			if (label == null || label.length() == 0)
 				return;
+			if (!levelOfDetail.showText(g.getDrawing()))
+				return;
 
 			Font f = getFont();
+			// no character is wider than the font size
+			if(!EdgeCulling.isVisible((Line) g, g2d, SPACING * 2 + label.length() * f.getSize()))
+				return;
 
 			Point2D start = ((Line) g).getStartPoint();
 			Point2D end = ((Line) g).getEndPoint();
@@ -212,6 +253,11 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 
 			g2d.setColor(getFontColor());
 
+			if(useSprites) {
+				sprites.get(label, f, getFontColor(), g2d).draw(g2d, startx + w, starty + th / 2);
+				return;
+			}
+
 			TextLayout tl = new TextLayout(label, g2d.getFont(), g2d.getFontRenderContext());
 			Rectangle2D tb = tl.getBounds();
 			g2d.drawString(label, startx + w, starty + th / 2);
@@ -226,6 +272,18 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 		return null;
 	}
 
+	/**
+	 * Draw labels from pre-rendered images instead of laying out
+	 * and rasterizing the text on every paint.
+	 */
+	void setUseSprites(boolean use) {
+		useSprites = use;
+		if(!use) sprites.clear();
+		modified();
+	}
+
+	boolean getUseSprites() { return useSprites; }
+
 	void setAdaptFontSize(boolean adapt) {
 		adaptFontSize = adapt;
 		modified();
@@ -234,12 +292,15 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 	void setFont(Font f) {
 		if(f != null) {
 			font = f;
+			// sprites of the old font would only be evicted by size
+			sprites.clear();
 			modified();
 		}
 	}
 
 	void setFontColor(Color fc) {
 		fontColor = fc;
+		sprites.clear();
 		modified();
 	}
 
@@ -274,6 +335,7 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 	static final String XML_ATTR_FONTDATA = "font";
 	static final String XML_ELM_FONTCOLOR = "font-color";
 	static final String XML_ATTR_OVERLAY = "overlay";
+	static final String XML_ATTR_SPRITES = "useSprites";
 	@Override
 	public Element toXML() {
 		Element elm = super.toXML();
@@ -284,6 +346,8 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 
 		elm.addContent(ColorConverter.createColorElement(XML_ELM_FONTCOLOR, getFontColor()));
 		elm.setAttribute(XML_ATTR_OVERLAY, Boolean.toString(getOverlay()));
+		elm.setAttribute(XML_ATTR_SPRITES, Boolean.toString(useSprites));
+		elm.addContent(levelOfDetail.toXML());
 		return elm;
 	}
 
@@ -295,10 +359,11 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 		String adaptStr = xml.getAttributeValue(XML_ATTR_ADAPT_FONT);
 		String fontStr = xml.getAttributeValue(XML_ATTR_FONTDATA);
 		String ovrStr = xml.getAttributeValue(XML_ATTR_OVERLAY);
+		String spriteStr = xml.getAttributeValue(XML_ATTR_SPRITES);
 		Element fcElm = xml.getChild(XML_ELM_FONTCOLOR);
 		try {
 			if (styleStr != null) {
-				setDisplayAttribute(styleStr);
+				display = styleStr;
 			}
 			if (adaptStr != null) {
 				adaptFontSize = Boolean.parseBoolean(adaptStr);
@@ -307,11 +372,15 @@ public class LineLabel extends AbstractVisualizationMethod implements ActionList
 				font = Font.decode(fontStr);
 			}
 			if (ovrStr != null) {
-				setOverlay(Boolean.parseBoolean(ovrStr));
+				setUseProvidedArea(!Boolean.parseBoolean(ovrStr));
+			}
+			if (spriteStr != null) {
+				useSprites = Boolean.parseBoolean(spriteStr);
 			}
 			if (fcElm != null) {
 				fontColor = ColorConverter.parseColorElement(fcElm);
 			}
+			levelOfDetail = LevelOfDetail.fromXML(xml, LevelOfDetail.DEFAULT);
 
 		} catch(NumberFormatException e) {
 			Logger.log.error("Unable to load configuration for " + getName(), e);
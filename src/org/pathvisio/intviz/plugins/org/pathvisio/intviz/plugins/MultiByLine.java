@@ -16,7 +16,6 @@
 //
 package org.pathvisio.intviz.plugins;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Graphics2D;
@@ -27,20 +26,19 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
-import org.bridgedb.Xref;
 import org.jdom.Element;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.view.ArrowShape;
 import org.pathvisio.core.view.Graphics;
 import org.pathvisio.core.view.Line;
 import org.pathvisio.data.DataException;
-import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.gex.CachedData;
 import org.pathvisio.desktop.gex.CachedData.Callback;
@@ -70,12 +68,19 @@ ActionListener, ListDataListener {
 	static final String ACTION_LIST = "List";
 	static final String ACTION_COMBO = "Colorset";
 	static final String ACTION_CHANGE_BAR = "Change";
+	static final String ACTION_DETAIL = "Level of detail...";
+	static final String ACTION_LOOKUP = "Color lookup table";
 
 	// Parameter use for drawing bar
 	private int BarW = 50;
 	private int BarH = 15;
 
+	private LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
+	private boolean lookup;
+
 	private List<ConfiguredSample> useSamples = new ArrayList<ConfiguredSample>();
+	/** Values of the selected samples for all lines of the pathway */
+	private SampleColumnStore columnStore;
 	private SortSampleCheckList sampleList;
 	private ColorSetCombo colorSetCombo;
 	private JTextField BarWTF;
@@ -101,7 +106,7 @@ ActionListener, ListDataListener {
 		JPanel panel = new JPanel();
 		FormLayout layout = new FormLayout(
 				"4dlu, pref, 4dlu, pref, 4dlu, pref, 4dlu, pref, 4dlu,pref",
-				"4dlu, pref, 4dlu, pref, 4dlu, pref,4dlu, pref");
+				"4dlu, pref, 4dlu, pref, 4dlu, pref,4dlu, pref, 4dlu, pref");
 		panel.setLayout(layout);
 
 		// JRadioButton radioId = new JRadioButton(ACTION_BAR);
@@ -136,6 +141,17 @@ ActionListener, ListDataListener {
 		changeBarButton.setActionCommand(ACTION_CHANGE_BAR);
 		changeBarButton.addActionListener(this);
 
+		JButton detail = new JButton(ACTION_DETAIL);
+		detail.setActionCommand(ACTION_DETAIL);
+		detail.addActionListener(this);
+
+		JCheckBox lookupCheck = new JCheckBox(ACTION_LOOKUP);
+		lookupCheck.setToolTipText("Take gradient colors from a table of "
+				+ ColorLookupTable.SIZE + " precomputed colors");
+		lookupCheck.setActionCommand(ACTION_LOOKUP);
+		lookupCheck.setSelected(lookup);
+		lookupCheck.addActionListener(this);
+
 		ColorSetChooser csChooser = new ColorSetChooser(csm, gexManager);
 		colorSetCombo = csChooser.getColorSetCombo();
 		colorSetCombo.setActionCommand(ACTION_COMBO);
@@ -152,6 +168,8 @@ ActionListener, ListDataListener {
 		panel.add(BarHTF, cc.xy(8, 6));
 		panel.add(changeBarButton, cc.xy(10, 6));
 		panel.add(csChooser, cc.xyw(2, 8, 9));
+		panel.add(detail, cc.xyw(2, 10, 3));
+		panel.add(lookupCheck, cc.xyw(6, 10, 3));
 		// radioId.setSelected(true);
 
 		return panel;
@@ -237,55 +255,166 @@ ActionListener, ListDataListener {
 
 	private void drawSample(final Line gp, Graphics2D g2d) {
 		int nr = useSamples.size();
+		// the bars are centered on the line
+		if (!EdgeCulling.isVisible(gp, g2d, Math.max(BarW, BarH) / 2.0)) {
+			return;
+		}
 		g2d.setClip(null);
+		CachedData cache = gexManager.getCachedData();
+		if (cache == null) {
+			return;
+		}
+		SampleColumnStore store = getColumnStore(gp, cache);
+		int index = store.indexOf(gp);
+		if (!fetchData(gp, cache, store, index)) {
+			return; // data is being loaded
+		}
+		double[] values = getSampleValues(store, index);
+
 		// weight of each small bar
 		double wf = BarW / nr;
 		// start position to draw bar
 		int startx = (int) (gp.getVCenterX() - BarW / 2);
 		int starty = (int) (gp.getVCenterY() - BarH / 2);
+		if (!levelOfDetail.showBars(gp.getDrawing())) {
+			// bars are too small to tell apart, draw their average color
+			Color avg = getAverageColor(store, index, values);
+			if (avg != null) {
+				drawColoredRectangle(new Rectangle(startx, starty, BarW, BarH), avg, g2d);
+			}
+			return;
+		}
 		for (int i = 0; i < nr; i++) {
 			// create the rectangle to draw: use for bar model
 			Rectangle r = new Rectangle((int) (startx + i * wf), starty,
 					(int) wf, BarH);
-			ConfiguredSample s = useSamples.get(i);
-			@SuppressWarnings("deprecation")
-			Xref idc = new Xref(gp.getPathwayElement().getGeneID(), gp
-					.getPathwayElement().getDataSource());
-			CachedData cache = gexManager.getCachedData();
-			if (cache == null) {
-				continue;
+			if (i == 0) {
+				EdgeIndex.get(gp.getDrawing()).setDecoration(this, gp,
+						new Rectangle(startx, starty, BarW, BarH));
 			}
+			ConfiguredSample s = useSamples.get(i);
 
 			if (s.getColorSet() == null) {
 				Logger.log.trace("No colorset for sample " + s);
 				continue; // No ColorSet for this sample
 			}
 
-			if (cache.hasData(idc)) {
-				List<? extends IRow> data = cache.getData(idc);
-				ColorSet cs = s.getColorSet();
-
-				if (data.size() > 0) {
-					Color rgb = cs.getColor(data.get(0), s.getSample());
-					drawColoredRectangle(r, rgb, g2d);
-				} else {
-					// no data draw default color
-					Color rgb = cs.getColor(cs.ID_COLOR_NO_DATA_FOUND);
-					drawColoredRectangle(r, rgb, g2d);
+			drawColoredRectangle(r, getColor(s, store, i, index, values[i]), g2d);
+		}
+
+	}
+
+	/**
+	 * Get the values of the selected samples for the pathway of the given
+	 * line, reading them again if the pathway, the dataset or the samples
+	 * have changed, or if the line was added after they were read.
+	 */
+	private SampleColumnStore getColumnStore(Line gp, CachedData cache) {
+		SampleColumnStore store = columnStore;
+		boolean keepRows = needsRows();
+		if (store == null || !store.isValidFor(gp.getDrawing(), cache, RowAggregation.FIRST)
+				|| (keepRows && !store.keepsRows())
+				|| store.getColumnCount() != useSamples.size() || store.indexOf(gp) < 0) {
+			store = null;
+		} else {
+			for (int i = 0; i < useSamples.size(); i++) {
+				if (store.getSample(i) != useSamples.get(i).getSample()) {
+					store = null;
+					break;
 				}
-			} else {
+			}
+		}
+		if (store == null) {
+			List<ISample> samples = new ArrayList<ISample>(useSamples.size());
+			for (ConfiguredSample s : useSamples) {
+				samples.add(s.getSample());
+			}
+			store = new SampleColumnStore(gp.getDrawing(), cache, samples,
+					RowAggregation.FIRST, keepRows);
+			columnStore = store;
+		}
+		return store;
+	}
 
-				// drawColoredRectangle(r,NoDataColor,g2d);
-				// the following use to refresh the cache data
-				cache.asyncGet(idc, new Callback() {
-					@Override
-					public void callback() {
-						gp.markDirty();
-					}
-				});
+	/**
+	 * Returns true if a color set of the selected samples is evaluated on
+	 * the data rows instead of a lookup table.
+	 */
+	private boolean needsRows() {
+		for (ConfiguredSample s : useSamples) {
+			if (s.getColorSet() != null && (!lookup || s.getLookupTable() == null)) {
+				return true;
 			}
 		}
+		return false;
+	}
 
+	/**
+	 * Make sure the values of a line are in the store. Returns false if the
+	 * data isn't cached yet, in which case a single asynchronous request
+	 * is made that repaints the line when the data arrives.
+	 */
+	private boolean fetchData(final Line gp, CachedData cache,
+			final SampleColumnStore store, final int index) {
+		if (store.refresh(index) != SampleColumnStore.PENDING) {
+			return true;
+		}
+		// the following use to refresh the cache data
+		cache.asyncGet(XrefCache.getXref(gp), new Callback() {
+			@Override
+			public void callback() {
+				store.markStale(index);
+				RepaintCoalescer.lineChanged(gp, Math.max(BarW, BarH) / 2.0);
+			}
+		});
+		return false;
+	}
+
+	/**
+	 * Color of the bar of the given sample for a line. Lines without data
+	 * rows get the no data color; rows whose value isn't numeric are still
+	 * evaluated by the colorset.
+	 */
+	private Color getColor(ConfiguredSample s, SampleColumnStore store, int column,
+			int index, double value) {
+		if (store.getState(index) != SampleColumnStore.LOADED) {
+			return s.getColorSet().getColor(ColorSet.ID_COLOR_NO_DATA_FOUND);
+		}
+		ColorLookupTable table = lookup && !Double.isNaN(value) ? s.getLookupTable() : null;
+		return table != null ? table.getColor(value)
+				: s.getColorSet().getColor(store.getRow(column, index), s.getSample());
+	}
+
+	/**
+	 * Average of the colors that the bars of the given line would get,
+	 * or null if none of the samples has a colorset.
+	 */
+	private Color getAverageColor(SampleColumnStore store, int index, double[] values) {
+		int r = 0, g = 0, b = 0, n = 0;
+		for (int i = 0; i < values.length; i++) {
+			ConfiguredSample s = useSamples.get(i);
+			ColorSet cs = s.getColorSet();
+			if (cs == null) continue;
+			Color c = getColor(s, store, i, index, values[i]);
+			if (c == null) continue;
+			r += c.getRed();
+			g += c.getGreen();
+			b += c.getBlue();
+			n++;
+		}
+		return n == 0 ? null : new Color(r / n, g / n, b / n);
+	}
+
+	/**
+	 * Values of all selected samples for the given line, in the order of
+	 * the bars. Missing and non-numeric values are NaN.
+	 */
+	private double[] getSampleValues(SampleColumnStore store, int index) {
+		double[] values = new double[store.getColumnCount()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = store.getValue(i, index);
+		}
+		return values;
 	}
 
 	void drawColoredRectangle(Rectangle r, Color c, Graphics2D g2d) {
@@ -304,7 +433,7 @@ ActionListener, ListDataListener {
 		g2d.setColor(rgb);
 
 		float lt = 1;
-		g2d.setStroke(new BasicStroke(lt));
+		g2d.setStroke(StrokeCache.getSolidStroke(lt));
 		g2d.draw(gp.getVConnectorAdjusted());
 
 		ArrowShape[] heads = gp.getVHeadsAdjusted();
@@ -319,7 +448,7 @@ ActionListener, ListDataListener {
 			Color rgb) {
 		if (arrow != null) {
 			// reset stroked line to solid, but use given thickness
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 
 			switch (arrow.getFillType()) {
 			case OPEN:
@@ -370,6 +499,16 @@ ActionListener, ListDataListener {
 			if (colorSetCombo.getSelectedItem() != null) {
 				setSingleColorSet(colorSetCombo.getSelectedColorSet());
 			}
+		} else if (ACTION_LOOKUP.equals(action)) {
+			setLookup(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_DETAIL.equals(action)) {
+			LevelOfDetail.showDialog((Component) e.getSource(), levelOfDetail,
+					LevelOfDetail.BARS, new LevelOfDetail.Listener() {
+				@Override
+				public void levelOfDetailChanged(LevelOfDetail lod) {
+					setLevelOfDetail(lod);
+				}
+			});
 		} else if (ACTION_CHANGE_BAR.equals(action)) {
 			// update bar width and height
 			try {
@@ -394,6 +533,37 @@ ActionListener, ListDataListener {
 		}
 	}
 
+	void setLevelOfDetail(LevelOfDetail lod) {
+		levelOfDetail = lod;
+		modified();
+	}
+
+	/**
+	 * Take gradient colors from a precomputed table instead of
+	 * interpolating them for every bar.
+	 */
+	void setLookup(boolean lookup) {
+		this.lookup = lookup;
+		modified();
+	}
+
+	static final String XML_ATTR_LOOKUP = "lookup";
+
+	@Override
+	public Element toXML() {
+		Element elm = super.toXML();
+		elm.setAttribute(XML_ATTR_LOOKUP, Boolean.toString(lookup));
+		elm.addContent(levelOfDetail.toXML());
+		return elm;
+	}
+
+	@Override
+	public void loadXML(Element xml) {
+		super.loadXML(xml);
+		lookup = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_LOOKUP));
+		levelOfDetail = LevelOfDetail.fromXML(xml, LevelOfDetail.DEFAULT);
+	}
+
 	@Override
 	public void contentsChanged(ListDataEvent arg0) {
 		// TODO Auto-generated method stub
@@ -421,6 +591,7 @@ ActionListener, ListDataListener {
 	public class ConfiguredSample {
 
 		ColorSet colorSet = new ColorSet(csm);
+		private volatile ColorLookupTable lookupTable;
 
 		int tolerance; // range 0 - 255;
 
@@ -460,8 +631,7 @@ ActionListener, ListDataListener {
 				throw new VisualizationException(
 						"Couldn't find Sample with id " + id);
 
-			setColorSet(getVisualization().getManager().getColorSetManager()
-					.getColorSet(csn));
+			setColorSet(csm.getColorSet(csn));
 		}
 
 		/**
@@ -506,6 +676,16 @@ ActionListener, ListDataListener {
 			return colorSet;
 		}
 
+		/**
+		 * Get the lookup table of the color-set, rebuilt when the color-set
+		 * has changed. Returns null if the color-set can't be tabulated.
+		 */
+		ColorLookupTable getLookupTable() {
+			ColorLookupTable table = ColorLookupTable.update(lookupTable, colorSet);
+			lookupTable = table;
+			return table;
+		}
+
 		/**
 		 * Get the name of the color-sets that is selected for visualization
 		 * 
@@ -22,32 +22,45 @@
  */
 package org.pathvisio.intviz.plugins;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.EventQueue;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import org.bridgedb.Xref;
 import org.jdom.Element;
+import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.view.ArrowShape;
 import org.pathvisio.core.view.Graphics;
 import org.pathvisio.core.view.Line;
 import org.pathvisio.core.view.VPathway;
 import org.pathvisio.data.DataException;
-import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.gex.CachedData;
 import org.pathvisio.desktop.gex.CachedData.Callback;
@@ -55,6 +68,7 @@ import org.pathvisio.desktop.gex.GexManager;
 import org.pathvisio.desktop.visualization.AbstractVisualizationMethod;
 import org.pathvisio.desktop.visualization.ColorSet;
 import org.pathvisio.desktop.visualization.ColorSetManager;
+import org.pathvisio.desktop.visualization.Visualization;
 import org.pathvisio.desktop.visualization.VisualizationManager.VisualizationException;
 import org.pathvisio.visualization.gui.ColorSetChooser;
 import org.pathvisio.visualization.gui.ColorSetCombo;
@@ -77,16 +91,108 @@ ActionListener, ChangeListener {
 	static final String DEFAULT_MAXDATAVALUE = "10";
 	static final String DEFAULT_MINLINETHICKNESS = "1";
 	static final String DEFAULT_MAXLINETHICKNESS = "7";
+	static final ThicknessScale DEFAULT_THICKNESS_SCALE = ThicknessScale.parse(
+			DEFAULT_MINLINETHICKNESS, DEFAULT_MAXLINETHICKNESS,
+			DEFAULT_MINDATAVALUE, DEFAULT_MAXDATAVALUE, null);
+	/** Maximum size of the overlay layer in pixels */
+	static final int LAYER_PIXELS = 8 * 1024 * 1024;
 	// static final String ACTION_GRADIENT = "Gradient";
 	static final String ACTION_COMBO = "Colorset";
 	static final String ACTION_CHANGE_LINE = "Change";
 	static final String ACTION_LINETTHICKNESS = "Thickness";
+	static final String ACTION_DETAIL = "Level of detail...";
+	static final String ACTION_BATCHED = "Group cached lines by style";
+	static final String ACTION_LAYERED = "Cache overlay image";
+	static final String ACTION_LOOKUP = "Color lookup table";
+	static final String ACTION_AGGREGATION = "Aggregation";
+	static final String ACTION_PLAY = "Play";
+	static final String ACTION_PAUSE = "Pause";
+	static final String ACTION_LOOP = "Loop";
+	static final String ACTION_INTERPOLATE = "Interpolate";
+	static final String ACTION_EXPORT = "Export frames...";
+	static final int DEFAULT_SUB_STEPS = 8;
+	static final int MAX_SUB_STEPS = 100;
+	static final int DEFAULT_FPS = 10;
+	static final int MAX_FPS = 60;
 	static final String DEFAULT_LABEL = "The selected time is :";
 
 	String mindatavalue;
 	String maxdatavalue;
 	String minlinethickness;
 	String maxlinethickness;
+	private ThicknessScale thicknessScale = DEFAULT_THICKNESS_SCALE;
+	private volatile EdgeRenderPlan renderPlan;
+	/** Values of all time points for the lines of the render plan */
+	private volatile SampleColumnStore columnStore;
+	private LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
+	private boolean batched;
+	private JCheckBox batchCheck;
+	private boolean layered;
+	private boolean lookup;
+	private int aggregation = RowAggregation.FIRST;
+	private boolean thicknessSelect = true;
+	private int fps = DEFAULT_FPS;
+	private boolean loop = true;
+	private boolean interpolate;
+	private int subSteps = DEFAULT_SUB_STEPS;
+	/** Position between the selected time point and the next, in sub steps */
+	private int subStep;
+	private TimeCourseFrames frames;
+	/** Set when data arrives during playback, the frames are computed again */
+	private volatile boolean framesStale;
+	/** Set while the slider is moved by the playback */
+	private boolean advancing;
+	private Timer playTimer;
+	private JButton playButton;
+	/** Set while the pathway is drawn as background of exported frames */
+	private boolean exporting;
+	private final OverlayLayer layer = new OverlayLayer(LAYER_PIXELS);
+	private final EdgeRenderPlan.LinePainter linePainter = new EdgeRenderPlan.LinePainter() {
+		@Override
+		public void paint(Graphics2D g2d, Line line, Color color, float width) {
+			drawColoredLine(line, color, width, g2d);
+		}
+	};
+	private final EdgeRenderPlan.Resolver resolver = new EdgeRenderPlan.Resolver() {
+		@Override
+		public void resolve(EdgeRenderPlan p, int index) {
+			resolvePlanEntry(p, index);
+		}
+	};
+	/** Renders the tiles of the layer from the current render plan */
+	private final OverlayLayer.Painter layerPainter = new OverlayLayer.Painter() {
+		@Override
+		public void paint(Graphics2D tile, Rectangle area) {
+			EdgeRenderPlan plan = renderPlan;
+			if (plan == null) return;
+			if (batched) {
+				EdgeBatch b = new EdgeBatch(false, levelOfDetail.showHeads(plan.getVPathway()));
+				plan.paintArea(tile, area, resolver, b);
+				b.flush(tile);
+			} else {
+				plan.paintArea(tile, area, resolver, linePainter);
+			}
+		}
+
+		@Override
+		public Shape getShape(Line line) {
+			EdgeRenderPlan plan = renderPlan;
+			int i = plan == null ? -1 : plan.indexOf(line);
+			return i < 0 ? null : plan.getShape(i, levelOfDetail.showHeads(line.getDrawing()));
+		}
+
+		@Override
+		public int getOrder(Line line) {
+			EdgeRenderPlan plan = renderPlan;
+			return plan == null ? -1 : plan.indexOf(line);
+		}
+
+		@Override
+		public double getMargin() {
+			EdgeRenderPlan plan = renderPlan;
+			return plan == null ? 0 : EdgeCulling.strokeMargin(plan.getMaxWidth());
+		}
+	};
 	private ColorSetCombo colorSetCombo;
 	List<ConfiguredSample> useSamples = new ArrayList<ConfiguredSample>();
 	private JSlider MulTslider;
@@ -119,7 +225,7 @@ ActionListener, ChangeListener {
 		JPanel panel = new JPanel();
 		FormLayout layout = new FormLayout(
 				"4dlu, pref, 4dlu, pref, fill:pref:grow, 4dlu",
-				"4dlu, pref, 4dlu, pref, pref,4dlu,pref,4dlu,pref,pref,pref");
+				"4dlu, pref, 4dlu, pref, pref,4dlu,pref,4dlu,pref,pref,pref,pref,pref,pref,pref,pref");
 		panel.setLayout(layout);
 
 		// JRadioButton radioId = new JRadioButton(ACTION_GRADIENT);
@@ -132,7 +238,7 @@ ActionListener, ChangeListener {
 		LineCheckbox = new JCheckBox(ACTION_LINETTHICKNESS);
 		LineCheckbox.setActionCommand(ACTION_LINETTHICKNESS);
 		LineCheckbox.addActionListener(this);
-		LineCheckbox.setSelected(true);
+		LineCheckbox.setSelected(thicknessSelect);
 
 		SortSampleCheckList sampleList;
 		List<ISample> selected = getSelectedSamples();
@@ -141,11 +247,74 @@ ActionListener, ChangeListener {
 				throw new NullPointerException();
 		sampleList = new SortSampleCheckList(selected, gexManager);
 
-		LineMaxTF = new JTextField(DEFAULT_MAXLINETHICKNESS);
-		LineMinTF = new JTextField(DEFAULT_MINLINETHICKNESS);
+		LineMaxTF = new JTextField(getMaxThickness());
+		LineMinTF = new JTextField(getMinThickness());
 		changeLineButton = new JButton(ACTION_CHANGE_LINE);
 		changeLineButton.setActionCommand(ACTION_CHANGE_LINE);
 		changeLineButton.addActionListener(this);
+		LineMaxTF.setEnabled(thicknessSelect);
+		LineMinTF.setEnabled(thicknessSelect);
+		changeLineButton.setEnabled(thicknessSelect);
+
+		JButton detail = new JButton(ACTION_DETAIL);
+		detail.setActionCommand(ACTION_DETAIL);
+		detail.addActionListener(this);
+
+		batchCheck = new JCheckBox(ACTION_BATCHED);
+		batchCheck.setToolTipText("Draw the lines of the overlay image with one call per color and stroke");
+		batchCheck.setActionCommand(ACTION_BATCHED);
+		batchCheck.setSelected(batched);
+		batchCheck.setEnabled(layered);
+		batchCheck.addActionListener(this);
+
+		JCheckBox layerCheck = new JCheckBox(ACTION_LAYERED);
+		layerCheck.setToolTipText("Keep the drawn lines in an image and only redraw the lines that change");
+		layerCheck.setActionCommand(ACTION_LAYERED);
+		layerCheck.setSelected(layered);
+		layerCheck.addActionListener(this);
+
+		JCheckBox lookupCheck = new JCheckBox(ACTION_LOOKUP);
+		lookupCheck.setToolTipText("Take gradient colors from a table of "
+				+ ColorLookupTable.SIZE + " precomputed colors");
+		lookupCheck.setActionCommand(ACTION_LOOKUP);
+		lookupCheck.setSelected(lookup);
+		lookupCheck.addActionListener(this);
+
+		JComboBox aggregationCombo = RowAggregation.createComboBox(aggregation);
+		aggregationCombo.setActionCommand(ACTION_AGGREGATION);
+		aggregationCombo.addActionListener(this);
+
+		playButton = new JButton(ACTION_PLAY);
+		playButton.setActionCommand(ACTION_PLAY);
+		playButton.addActionListener(this);
+
+		JCheckBox loopCheck = new JCheckBox(ACTION_LOOP);
+		loopCheck.setActionCommand(ACTION_LOOP);
+		loopCheck.setSelected(loop);
+		loopCheck.addActionListener(this);
+
+		final JSpinner fpsSpinner = new JSpinner(new SpinnerNumberModel(fps, 1, MAX_FPS, 1));
+		fpsSpinner.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				setFps((Integer) fpsSpinner.getValue());
+			}
+		});
+
+		JCheckBox interpolateCheck = new JCheckBox(ACTION_INTERPOLATE);
+		interpolateCheck.setToolTipText("Blend color and thickness between time points during playback");
+		interpolateCheck.setActionCommand(ACTION_INTERPOLATE);
+		interpolateCheck.setSelected(interpolate);
+		interpolateCheck.addActionListener(this);
+
+		final JSpinner stepSpinner = new JSpinner(new SpinnerNumberModel(subSteps, 2, MAX_SUB_STEPS, 1));
+		stepSpinner.setToolTipText("Number of frames per time point when interpolating");
+		stepSpinner.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				setSubSteps((Integer) stepSpinner.getValue());
+			}
+		});
 
 		ColorSetChooser csChooser = new ColorSetChooser(csm, gexManager);
 		colorSetCombo = csChooser.getColorSetCombo();
@@ -184,6 +353,24 @@ ActionListener, ChangeListener {
 		panel.add(new JLabel("Line maximum thickess:"), cc.xy(2, 10));
 		panel.add(LineMaxTF, cc.xy(4, 10));
 		panel.add(changeLineButton, cc.xy(2, 11));
+		panel.add(detail, cc.xy(4, 11));
+		panel.add(batchCheck, cc.xy(4, 2));
+		panel.add(layerCheck, cc.xy(5, 2));
+		panel.add(new JLabel("Multiple rows:"), cc.xy(2, 12));
+		panel.add(aggregationCombo, cc.xy(4, 12));
+		panel.add(lookupCheck, cc.xy(5, 12));
+		panel.add(playButton, cc.xy(2, 13));
+		panel.add(loopCheck, cc.xy(4, 13));
+		panel.add(new JLabel("Frames per second:"), cc.xy(2, 14));
+		panel.add(fpsSpinner, cc.xy(4, 14));
+		panel.add(interpolateCheck, cc.xy(2, 15));
+		panel.add(stepSpinner, cc.xy(4, 15));
+
+		JButton exportButton = new JButton(ACTION_EXPORT);
+		exportButton.setToolTipText("Save every time point as PNG files in a directory, or as a .gif animation");
+		exportButton.setActionCommand(ACTION_EXPORT);
+		exportButton.addActionListener(this);
+		panel.add(exportButton, cc.xy(2, 16));
 		// radioId.setSelected(true);
 
 		return panel;
@@ -208,55 +395,154 @@ ActionListener, ChangeListener {
 	@Override
 	public void visualizeOnDrawing(Graphics g, Graphics2D g2d) {
 		if (g instanceof Line) {
-			if (useSamples.size() == 0)
+			if (useSamples.size() == 0 || exporting)
 				return; // Nothing to draw
 			final Line gp = (Line) g;
 
-			g2d.setClip(null);
-
-			ConfiguredSample s = useSamples.get(seletedSlider);
-
-			Xref idc = new Xref(gp.getPathwayElement().getElementID(), gp
-					.getPathwayElement().getDataSource());
-			CachedData cache = gexManager.getCachedData();
+			final EdgeRenderPlan plan = getRenderPlan(gp);
+			if (plan == null)
+				return;
 
-			if (cache == null)
+			if (layered && layer.draw(g2d, gp, layerPainter)) {
 				return;
+			}
 
-			if (cache.hasData(idc)) {
-				List<? extends IRow> data = cache.getData(idc);
-				if (data.size() > 0) {
-					drawSample(s, data, gp, g2d);
-				}
-			} else {
-				cache.asyncGet(idc, new Callback() {
-					@Override
-					public void callback() {
-						gp.markDirty();
-					}
-				});
+			int i = plan.indexOf(gp);
+			if (i < 0)
+				return;
+			if (plan.getState(i) == EdgeRenderPlan.STALE) {
+				resolvePlanEntry(plan, i);
 			}
+			if (plan.getState(i) == EdgeRenderPlan.READY
+					&& EdgeCulling.isStrokeVisible(gp, g2d, plan.getWidth(i))) {
+				g2d.setClip(null);
+				drawColoredLine(gp, plan.getPaint(i), plan.getWidth(i), g2d);
+			}
+		}
+
+	}
 
+	/**
+	 * Get the render plan for the pathway of the given line, computing
+	 * it for all lines if the pathway, the dataset or the settings
+	 * have changed, or if the line was added after the plan was made.
+	 */
+	private EdgeRenderPlan getRenderPlan(Line gp) {
+		CachedData cache = gexManager.getCachedData();
+		if (cache == null)
+			return null;
+
+		EdgeRenderPlan plan = renderPlan;
+		if (plan == null || !plan.isValidFor(gp.getDrawing(), cache)
+				|| plan.indexOf(gp) < 0) {
+			plan = new EdgeRenderPlan(gp.getDrawing(), cache);
+			resolvePlan(plan, seletedSlider, updateColumnStore(plan), true);
+			// publish the plan only when it is complete
+			renderPlan = plan;
+			layer.invalidate();
 		}
+		return plan;
+	}
 
+	/**
+	 * Get the values of all time points for the lines of the given plan,
+	 * reading them again only if the pathway, the dataset, the time points
+	 * or the aggregation mode have changed.
+	 */
+	private SampleColumnStore updateColumnStore(EdgeRenderPlan plan) {
+		List<ISample> samples = new ArrayList<ISample>(useSamples.size());
+		for (ConfiguredSample s : useSamples) {
+			samples.add(s.getSample());
+		}
+		SampleColumnStore store = SampleColumnStore.update(columnStore, plan, samples,
+				aggregation, needsRows());
+		columnStore = store;
+		return store;
 	}
 
-	private void drawSample(ConfiguredSample s, List<? extends IRow> data,
-			Line gp, Graphics2D g2d) {
+	/**
+	 * Returns true if a color set of the time points is evaluated on the
+	 * combined data rows instead of a lookup table.
+	 */
+	private boolean needsRows() {
+		for (ConfiguredSample s : useSamples) {
+			if (s.getColorSet() != null && (!lookup || s.getLookupTable() == null)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-		IRow dataval = data.get(0);
-		ISample sample = s.getSample();
-		ColorSet cs = s.getColorSet();
-		Color rgb = cs.getColor(dataval, sample);
-		drawColoredLine(gp, rgb, g2d, dataval, sample);
+	/**
+	 * Compute the entries of all lines for the given time point.
+	 *
+	 * @param request request the data of lines that aren't cached yet
+	 */
+	private void resolvePlan(EdgeRenderPlan plan, final int column,
+			final SampleColumnStore store, final boolean request) {
+		final ConfiguredSample s = useSamples.get(column);
+		final boolean thickness = thicknessSelect;
+		ParallelPlanBuilder.resolveAll(plan, ParallelPlanBuilder.isThreadSafe(s.getColorSet()),
+				store, new EdgeRenderPlan.Resolver() {
+			@Override
+			public void resolve(EdgeRenderPlan p, int index) {
+				resolveValue(p, index, s, store, column, thickness);
+			}
+		}, new EdgeRenderPlan.Resolver() {
+			@Override
+			public void resolve(EdgeRenderPlan p, int index) {
+				resolvePlanEntry(p, index, store, column, thickness, request);
+			}
+		});
 	}
 
-	private void drawColoredLine(Line gp, Color rgb, Graphics2D g2d,
-			IRow dataval, ISample sample) {
-		g2d.setPaint(rgb);
-		g2d.setColor(rgb);
+	/**
+	 * Compute color and thickness of a single line for the selected
+	 * time point, or request the data if it isn't cached yet.
+	 */
+	private void resolvePlanEntry(EdgeRenderPlan plan, int index) {
+		resolvePlanEntry(plan, index, columnStore, seletedSlider,
+				thicknessSelect, true);
+	}
 
-		double datavalue = (Double) dataval.getSampleData(sample);
+	private void resolvePlanEntry(final EdgeRenderPlan plan, final int index,
+			final SampleColumnStore store, int column, boolean thickness, boolean request) {
+		final Line gp = plan.getLine(index);
+
+		if (store.refresh(index) != SampleColumnStore.PENDING) {
+			resolveValue(plan, index, useSamples.get(column), store, column, thickness);
+		} else {
+			plan.setState(index, EdgeRenderPlan.PENDING);
+			if (!request) return;
+			plan.getCachedData().asyncGet(XrefCache.getXref(gp), new Callback() {
+				@Override
+				public void callback() {
+					store.markStale(index);
+					plan.markStale(index);
+					framesStale = true;
+					layer.invalidate(gp);
+					RepaintCoalescer.lineChanged(gp,
+							EdgeCulling.strokeMargin(plan.getMaxWidth()));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Compute color and thickness of a single line from its value in the
+	 * column store. May be called on a worker thread.
+	 */
+	private void resolveValue(EdgeRenderPlan plan, int index, ConfiguredSample s,
+			SampleColumnStore store, int column, boolean thickness) {
+		ColorSet cs = s.getColorSet();
+		double datavalue = store.getValue(column, index);
+		if (cs == null || Double.isNaN(datavalue)) {
+			plan.setState(index, EdgeRenderPlan.NO_DATA);
+			return;
+		}
+		ColorLookupTable table = lookup ? s.getLookupTable() : null;
+		Color rgb = table != null ? table.getColor(datavalue)
+				: cs.getColor(store.getRow(column, index), s.getSample());
 
 		if (datavalue < 0) {
 			datavalue = (-1) * datavalue;
@@ -264,17 +550,23 @@ ActionListener, ChangeListener {
 
 		// default line thickness
 		float lt = 2;
-		if (LineCheckbox.isSelected()) {
-			lt = setLineThickness((float) datavalue);
+		if (thickness) {
+			lt = thicknessScale.thickness((float) datavalue);
 		}
+		plan.set(index, rgb.getRGB(), lt);
+	}
+
+	private void drawColoredLine(Line gp, Color rgb, float lt, Graphics2D g2d) {
+		g2d.setPaint(rgb);
+		g2d.setColor(rgb);
+
 		int ls = gp.getPathwayElement().getLineStyle();
 		if (ls == 0) {
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 		} else if (ls == 1) {
-			g2d.setStroke(new BasicStroke(lt, BasicStroke.CAP_SQUARE,
-					BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
+			g2d.setStroke(StrokeCache.getStroke(lt, ls));
 		}
-		g2d.setStroke(new BasicStroke(lt));
+		g2d.setStroke(StrokeCache.getSolidStroke(lt));
 		g2d.draw(gp.getVConnectorAdjusted());
 
 		/* wrong here, cannot get the start position and end position */
@@ -288,6 +580,9 @@ ActionListener, ChangeListener {
 		// // g2d.drawLine(sx, sy, ex, ey);
 		// g2d.draw(ml.getRBounds());
 
+		if (!levelOfDetail.showHeads(gp.getDrawing()))
+			return; // too small to see the arrow heads
+
 		ArrowShape[] heads = gp.getVHeadsAdjusted();
 		ArrowShape hs = heads[0];
 		ArrowShape he = heads[1];
@@ -300,7 +595,7 @@ ActionListener, ChangeListener {
 			Color rgb) {
 		if (arrow != null) {
 			// reset stroked line to solid, but use given thickness
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 
 			switch (arrow.getFillType()) {
 			case OPEN:
@@ -326,43 +621,24 @@ ActionListener, ChangeListener {
 	protected void setMinData(String minD) {
 		if (minD != null) {
 			mindatavalue = minD;
-			modified();
-		}
-	}
-
-	private String getMinData(boolean b) {
-		String minD = mindatavalue == null ? DEFAULT_MINDATAVALUE
-				: mindatavalue;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			minD = new String(minD);
+			updateThicknessScale();
+			settingsChanged();
 		}
-		return minD;
 	}
 
 	protected void setMaxData(String maxD) {
 		if (maxD != null) {
 			maxdatavalue = maxD;
-			modified();
-		}
-	}
-
-	private String getMaxData(boolean b) {
-		String maxD = maxdatavalue == null ? DEFAULT_MAXDATAVALUE
-				: maxdatavalue;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			maxD = new String(maxD);
+			updateThicknessScale();
+			settingsChanged();
 		}
-		return maxD;
 	}
 
 	protected void setMinThickness(String minT) {
 		if (minT != null) {
 			minlinethickness = minT;
-			modified();
+			updateThicknessScale();
+			settingsChanged();
 		}
 
 	}
@@ -370,18 +646,14 @@ ActionListener, ChangeListener {
 	private String getMinThickness() {
 		String minT = minlinethickness == null ? DEFAULT_MINLINETHICKNESS
 				: minlinethickness;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			minT = new String(minT);
-		}
 		return minT;
 	}
 
 	protected void setMaxThickness(String maxT) {
 		if (maxT != null) {
 			maxlinethickness = maxT;
-			modified();
+			updateThicknessScale();
+			settingsChanged();
 		}
 
 	}
@@ -389,36 +661,155 @@ ActionListener, ChangeListener {
 	private String getMaxThickness() {
 		String maxT = maxlinethickness == null ? DEFAULT_MAXLINETHICKNESS
 				: maxlinethickness;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			maxT = new String(maxT);
-		}
 		return maxT;
 	}
 
-	private float setLineThickness(float data) {
-		minlinethickness = getMinThickness();
-		maxlinethickness = getMaxThickness();
-		maxdatavalue = getMaxData(true);
-		mindatavalue = getMinData(true);
-		float minthickness = Float.parseFloat(minlinethickness);
-		float maxthickness = Float.parseFloat(maxlinethickness);
-		float maxdata = Float.parseFloat(maxdatavalue);
-		float mindata = Float.parseFloat(mindatavalue);
+	/**
+	 * Rebuild the thickness scale from the current settings, called
+	 * whenever one of the thickness or data range settings changes.
+	 */
+	private void updateThicknessScale() {
+		thicknessScale = ThicknessScale.parse(
+				minlinethickness == null ? DEFAULT_MINLINETHICKNESS : minlinethickness,
+				maxlinethickness == null ? DEFAULT_MAXLINETHICKNESS : maxlinethickness,
+				mindatavalue == null ? DEFAULT_MINDATAVALUE : mindatavalue,
+				maxdatavalue == null ? DEFAULT_MAXDATAVALUE : maxdatavalue,
+				thicknessScale);
+	}
 
-		if (maxdata < mindata) {
-			maxdata = Float.parseFloat(mindatavalue);
-			mindata = Float.parseFloat(maxdatavalue);
-		}
-		if (maxthickness < minthickness) {
-			minthickness = Float.parseFloat(maxlinethickness);
-			maxthickness = Float.parseFloat(minlinethickness);
+	/**
+	 * Drop the cached render plan and notify the visualization that this
+	 * method has been modified. Also called when a color set is edited.
+	 */
+	void settingsChanged() {
+		renderPlan = null;
+		layer.invalidate();
+		modified();
+	}
+
+	void setLevelOfDetail(LevelOfDetail lod) {
+		levelOfDetail = lod;
+		layer.invalidate();
+		modified();
+	}
+
+	/**
+	 * Render the tiles of the overlay layer with one draw call per color
+	 * and stroke, see EdgeBatch. Only used when the layer is enabled.
+	 */
+	void setBatched(boolean batched) {
+		this.batched = batched;
+		layer.invalidate();
+		modified();
+	}
+
+	/**
+	 * Keep the drawn lines in an off-screen image and composite that
+	 * image on following paints.
+	 */
+	void setLayered(boolean layered) {
+		this.layered = layered;
+		layer.invalidate();
+		modified();
+	}
+
+	/**
+	 * Take gradient colors from a precomputed table instead of
+	 * interpolating them for every line.
+	 */
+	void setLookup(boolean lookup) {
+		this.lookup = lookup;
+		settingsChanged();
+	}
+
+	/**
+	 * Set how the rows of an interaction with several rows are combined,
+	 * see RowAggregation.
+	 */
+	void setAggregation(int aggregation) {
+		this.aggregation = aggregation;
+		settingsChanged();
+	}
+
+	static final String XML_ATTR_BATCHED = "batched";
+	static final String XML_ATTR_LAYERED = "layered";
+	static final String XML_ATTR_LOOKUP = "lookup";
+	static final String XML_ATTR_FPS = "fps";
+	static final String XML_ATTR_LOOP = "loop";
+	static final String XML_ATTR_INTERPOLATE = "interpolate";
+	static final String XML_ATTR_SUB_STEPS = "subSteps";
+	static final String XML_ATTR_THICKNESS = "thickness";
+	static final String XML_ATTR_MINLINETHICKNESS = "minlinethickness";
+	static final String XML_ATTR_MAXLINETHICKNESS = "maxlinethickness";
+
+	@Override
+	public Element toXML() {
+		Element elm = super.toXML();
+		elm.setAttribute(XML_ATTR_BATCHED, Boolean.toString(batched));
+		elm.setAttribute(XML_ATTR_LAYERED, Boolean.toString(layered));
+		elm.setAttribute(XML_ATTR_LOOKUP, Boolean.toString(lookup));
+		elm.setAttribute(RowAggregation.XML_ATTR, RowAggregation.toXML(aggregation));
+		elm.setAttribute(XML_ATTR_FPS, Integer.toString(fps));
+		elm.setAttribute(XML_ATTR_LOOP, Boolean.toString(loop));
+		elm.setAttribute(XML_ATTR_INTERPOLATE, Boolean.toString(interpolate));
+		elm.setAttribute(XML_ATTR_SUB_STEPS, Integer.toString(subSteps));
+		elm.setAttribute(XML_ATTR_THICKNESS, Boolean.toString(thicknessSelect));
+		elm.setAttribute(XML_ATTR_MINLINETHICKNESS, getMinThickness());
+		elm.setAttribute(XML_ATTR_MAXLINETHICKNESS, getMaxThickness());
+		for (ConfiguredSample s : useSamples) {
+			if (s.getColorSet() != null) {
+				elm.addContent(s.toXML());
+			}
 		}
+		elm.addContent(levelOfDetail.toXML());
+		return elm;
+	}
 
-		float linethickness = (data * ((maxthickness - minthickness) / (maxdata - mindata)))
-				+ minthickness;
-		return linethickness;
+	@Override
+	public void loadXML(Element xml) {
+		super.loadXML(xml);
+		batched = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_BATCHED));
+		layered = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_LAYERED));
+		lookup = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_LOOKUP));
+		aggregation = RowAggregation.fromXML(
+				xml.getAttributeValue(RowAggregation.XML_ATTR), RowAggregation.FIRST);
+		String fpsValue = xml.getAttributeValue(XML_ATTR_FPS);
+		if (fpsValue != null) {
+			try {
+				fps = Math.max(1, Math.min(MAX_FPS, Integer.parseInt(fpsValue)));
+			} catch (NumberFormatException e) {
+				Logger.log.error("Invalid frame rate " + fpsValue, e);
+			}
+		}
+		String loopValue = xml.getAttributeValue(XML_ATTR_LOOP);
+		loop = loopValue == null || Boolean.parseBoolean(loopValue);
+		interpolate = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_INTERPOLATE));
+		String stepsValue = xml.getAttributeValue(XML_ATTR_SUB_STEPS);
+		if (stepsValue != null) {
+			try {
+				subSteps = Math.max(2, Math.min(MAX_SUB_STEPS, Integer.parseInt(stepsValue)));
+			} catch (NumberFormatException e) {
+				Logger.log.error("Invalid number of interpolation steps " + stepsValue, e);
+			}
+		}
+		String thicknessValue = xml.getAttributeValue(XML_ATTR_THICKNESS);
+		thicknessSelect = thicknessValue == null || Boolean.parseBoolean(thicknessValue);
+		// assigned directly: the setters notify a visualization that may not exist yet
+		String minT = xml.getAttributeValue(XML_ATTR_MINLINETHICKNESS);
+		if (minT != null) minlinethickness = minT;
+		String maxT = xml.getAttributeValue(XML_ATTR_MAXLINETHICKNESS);
+		if (maxT != null) maxlinethickness = maxT;
+		updateThicknessScale();
+		useSamples = new ArrayList<ConfiguredSample>();
+		for (Object o : xml.getChildren(ConfiguredSample.XML_ELEMENT)) {
+			try {
+				useSamples.add(new ConfiguredSample((Element) o));
+			} catch (VisualizationException e) {
+				Logger.log.error("Unable to load plugin settings", e);
+			}
+		}
+		seletedSlider = 0;
+		levelOfDetail = LevelOfDetail.fromXML(xml, LevelOfDetail.DEFAULT);
 	}
 
 	@Override
@@ -435,6 +826,257 @@ ActionListener, ChangeListener {
 			SliderLabel.setText(DEFAULT_LABEL
 					+ useSamples.get(seletedSlider).getSample().getName());
 		}
+		if (advancing) {
+			return; // the frame is already shown
+		}
+		stopPlayback();
+		settingsChanged();
+	}
+
+	/**
+	 * Compute the frames of all time points and start advancing them
+	 * at the selected frame rate.
+	 */
+	private void startPlayback() {
+		if (useSamples.size() < 2 || !buildFrames()) {
+			return;
+		}
+		playTimer = new Timer(1000 / fps, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				nextFrame();
+			}
+		});
+		playTimer.start();
+		playButton.setText(ACTION_PAUSE);
+		playButton.setActionCommand(ACTION_PAUSE);
+	}
+
+	private void stopPlayback() {
+		if (playTimer != null) {
+			playTimer.stop();
+			playTimer = null;
+		}
+		frames = null;
+		if (playButton != null) {
+			playButton.setText(ACTION_PLAY);
+			playButton.setActionCommand(ACTION_PLAY);
+		}
+	}
+
+	/**
+	 * Compute the frames for the active pathway and show the
+	 * selected time point. Returns false if there is nothing to play.
+	 */
+	private boolean buildFrames() {
+		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
+		CachedData cache = gexManager.getCachedData();
+		if (vp == null || cache == null) {
+			return false;
+		}
+		final int current = seletedSlider;
+		EdgeRenderPlan plan = new EdgeRenderPlan(vp, cache);
+		final SampleColumnStore store = updateColumnStore(plan);
+		framesStale = false;
+		subStep = 0;
+		frames = new TimeCourseFrames(plan, useSamples.size(), new TimeCourseFrames.FrameResolver() {
+			@Override
+			public void resolveFrame(EdgeRenderPlan p, int frame) {
+				// the data is the same for all frames, request it only once
+				resolvePlan(p, frame, store, frame == current);
+			}
+		});
+		frames.show(current);
+		renderPlan = plan;
+		layer.invalidate();
+		return true;
+	}
+
+	/**
+	 * Show the next time point, or the next blend towards it when
+	 * interpolating. The frames are computed again if data arrived or
+	 * the plan was replaced since they were made. Playback stops when this
+	 * method was removed, another visualization was selected or the
+	 * pathway of the frames is no longer shown.
+	 */
+	private void nextFrame() {
+		if (!isShown() || (frames != null && frames.getPlan().getVPathway()
+				!= getVisualization().getManager().getEngine().getActiveVPathway())) {
+			stopPlayback();
+			return;
+		}
+		if (frames == null || framesStale || renderPlan != frames.getPlan()
+				|| frames.size() != useSamples.size()) {
+			if (!buildFrames()) {
+				stopPlayback();
+				return;
+			}
+		}
+		int steps = interpolate ? subSteps : 1;
+		int next = seletedSlider;
+		int step = subStep + 1;
+		if (step >= steps) {
+			step = 0;
+			next++;
+			if (next >= frames.size()) {
+				if (!loop) {
+					stopPlayback();
+					return;
+				}
+				next = 0;
+			}
+		} else if (next == frames.size() - 1 && !loop) {
+			// nothing to blend with after the last time point
+			stopPlayback();
+			return;
+		}
+		subStep = step;
+		if (step == 0) {
+			frames.show(next);
+		} else {
+			frames.showBetween(next, (float) step / steps);
+		}
+		layer.invalidate();
+		if (next != seletedSlider) {
+			seletedSlider = next;
+			advancing = true;
+			try {
+				MulTslider.setValue(next);
+			} finally {
+				advancing = false;
+			}
+		}
+		// only the drawing changes, the visualization itself is not modified
+		frames.getPlan().getVPathway().redraw();
+	}
+
+	/**
+	 * Returns true if this method is part of the active visualization.
+	 */
+	private boolean isShown() {
+		Visualization v = getVisualization();
+		return v != null && v.getManager().getActiveVisualization() == v
+				&& v.getMethod(MultiTimeByLine.class.toString()) == this;
+	}
+
+	/**
+	 * Render every time point of the active pathway to an image. Files
+	 * ending in .gif are written as one animated GIF, showing each time
+	 * point for one playback frame; otherwise the target is a directory
+	 * that gets one PNG file per time point. The data of all lines is
+	 * loaded first, so no line is left out while its data is requested.
+	 * Loading and writing run in the background; the given component is
+	 * disabled until the export is done and errors are shown on it.
+	 * Must be called on the event dispatch thread.
+	 */
+	void exportFrames(final File target, final Component parent) {
+		stopPlayback();
+		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
+		final CachedData cache = gexManager.getCachedData();
+		if (useSamples.size() == 0 || vp == null || cache == null) {
+			showExportError(parent, "No pathway or data to export");
+			return;
+		}
+		final Set<Xref> refs = XrefCache.getLineXrefs(vp);
+		final int delay = 1000 / fps;
+		final boolean repeat = loop;
+
+		parent.setEnabled(false);
+		new SwingWorker<Void, Void>() {
+			private TimeCourseExporter exporter;
+
+			@Override
+			protected Void doInBackground() throws Exception {
+				cache.syncSeed(refs);
+				EventQueue.invokeAndWait(new Runnable() {
+					@Override
+					public void run() {
+						exporter = prepareExport();
+					}
+				});
+				if (exporter == null) {
+					throw new IOException("No pathway or data to export");
+				}
+				if (target.getName().toLowerCase().endsWith(".gif")) {
+					exporter.writeGif(target, delay, repeat);
+				} else {
+					exporter.writePng(target, "frame");
+				}
+				return null;
+			}
+
+			@Override
+			protected void done() {
+				parent.setEnabled(true);
+				try {
+					get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					Logger.log.error("Unable to export frames", e.getCause());
+					showExportError(parent, e.getCause().getMessage());
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Compute the frames of the active pathway and draw the pathway without
+	 * the time course, for exporting. Returns null if there is nothing to
+	 * export. Must be called on the event dispatch thread.
+	 */
+	private TimeCourseExporter prepareExport() {
+		if (useSamples.size() == 0 || !buildFrames()) {
+			return null;
+		}
+		TimeCourseFrames exported = frames;
+		frames = null;
+		VPathway vp = exported.getPlan().getVPathway();
+		exporting = true;
+		try {
+			return new TimeCourseExporter(vp, exported, levelOfDetail.showHeads(vp));
+		} finally {
+			exporting = false;
+		}
+	}
+
+	private static void showExportError(Component parent, String message) {
+		JOptionPane.showMessageDialog(parent, "Unable to export frames: " + message,
+				"Error", JOptionPane.ERROR_MESSAGE);
+	}
+
+	/**
+	 * Set the number of time points shown per second during playback
+	 */
+	void setFps(int fps) {
+		this.fps = Math.max(1, Math.min(MAX_FPS, fps));
+		if (playTimer != null) {
+			playTimer.setDelay(1000 / this.fps);
+		}
+		modified();
+	}
+
+	/**
+	 * Blend color and thickness between time points during playback
+	 */
+	void setInterpolate(boolean interpolate) {
+		this.interpolate = interpolate;
+		modified();
+	}
+
+	/**
+	 * Set the number of frames shown per time point when interpolating
+	 */
+	void setSubSteps(int steps) {
+		subSteps = Math.max(2, Math.min(MAX_SUB_STEPS, steps));
+		modified();
+	}
+
+	/**
+	 * Restart at the first time point after the last one during playback
+	 */
+	void setLoop(boolean loop) {
+		this.loop = loop;
 		modified();
 	}
 
@@ -447,6 +1089,37 @@ ActionListener, ChangeListener {
 			if (colorSetCombo.getSelectedItem() != null) {
 				setSingleColorSet(colorSetCombo.getSelectedColorSet());
 			}
+		} else if (ACTION_BATCHED.equals(action)) {
+			setBatched(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_LAYERED.equals(action)) {
+			setLayered(((JCheckBox) e.getSource()).isSelected());
+			batchCheck.setEnabled(layered);
+		} else if (ACTION_LOOKUP.equals(action)) {
+			setLookup(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_AGGREGATION.equals(action)) {
+			setAggregation(((JComboBox) e.getSource()).getSelectedIndex());
+		} else if (ACTION_PLAY.equals(action)) {
+			startPlayback();
+		} else if (ACTION_PAUSE.equals(action)) {
+			stopPlayback();
+		} else if (ACTION_LOOP.equals(action)) {
+			setLoop(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_INTERPOLATE.equals(action)) {
+			setInterpolate(((JCheckBox) e.getSource()).isSelected());
+		} else if (ACTION_EXPORT.equals(action)) {
+			JFileChooser chooser = new JFileChooser();
+			chooser.setDialogTitle(ACTION_EXPORT);
+			if (chooser.showSaveDialog((Component) e.getSource()) == JFileChooser.APPROVE_OPTION) {
+				exportFrames(chooser.getSelectedFile(), (Component) e.getSource());
+			}
+		} else if (ACTION_DETAIL.equals(action)) {
+			LevelOfDetail.showDialog((Component) e.getSource(), levelOfDetail,
+					LevelOfDetail.HEADS, new LevelOfDetail.Listener() {
+				@Override
+				public void levelOfDetailChanged(LevelOfDetail lod) {
+					setLevelOfDetail(lod);
+				}
+			});
 		} else if (ACTION_CHANGE_LINE.equals(action)) {
 			// update bar width and height
 			try {
@@ -467,7 +1140,8 @@ ActionListener, ChangeListener {
 				LineMinTF.setText(getMinThickness());
 			}
 		} else if (ACTION_LINETTHICKNESS.equals(action)) {
-			if (LineCheckbox.isSelected()) {
+			thicknessSelect = LineCheckbox.isSelected();
+			if (thicknessSelect) {
 				// use line thickness method
 				LineMaxTF.setEnabled(true);
 				LineMinTF.setEnabled(true);
@@ -478,7 +1152,7 @@ ActionListener, ChangeListener {
 				LineMinTF.setEnabled(false);
 				changeLineButton.setEnabled(false);
 			}
-			modified();
+			settingsChanged();
 		}
 	}
 
@@ -526,6 +1200,7 @@ ActionListener, ChangeListener {
 	public class ConfiguredSample {
 
 		ColorSet colorSet = new ColorSet(csm);
+		private volatile ColorLookupTable lookupTable;
 
 		int tolerance; // range 0 - 255;
 
@@ -565,8 +1240,7 @@ ActionListener, ChangeListener {
 				throw new VisualizationException(
 						"Couldn't find Sample with id " + id);
 
-			setColorSet(getVisualization().getManager().getColorSetManager()
-					.getColorSet(csn));
+			colorSet = csm.getColorSet(csn);
 		}
 
 		/**
@@ -599,7 +1273,7 @@ ActionListener, ChangeListener {
 		 */
 		public void setColorSet(ColorSet cs) {
 			colorSet = cs;
-			modified();
+			settingsChanged();
 		}
 
 		/**
@@ -611,6 +1285,16 @@ ActionListener, ChangeListener {
 			return colorSet;
 		}
 
+		/**
+		 * Get the lookup table of the color-set, rebuilt when the color-set
+		 * has changed. Returns null if the color-set can't be tabulated.
+		 */
+		ColorLookupTable getLookupTable() {
+			ColorLookupTable table = ColorLookupTable.update(lookupTable, colorSet);
+			lookupTable = table;
+			return table;
+		}
+
 		/**
 		 * Get the name of the color-sets that is selected for visualization
 		 * 
@@ -0,0 +1,331 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Transparency;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+
+/**
+ * Off-screen image of everything a visualization method draws on the
+ * lines of a pathway, split into tiles in view coordinates. Tiles are
+ * rendered when they are first painted and then composited on following
+ * paints, so scrolling around the pathway doesn't draw the lines again.
+ * <p>
+ * PathVisio asks for the overlay of a line right after drawing the line,
+ * and elements drawn later paint over it. The tiles are therefore not
+ * composited at once: for each line only the pixels its own overlay covers
+ * are composited, minus the pixels of the overlays of lines drawn after
+ * it, which are composited with those lines. Every pixel is composited
+ * once per paint, right after the last line that draws on it, so crossing
+ * overlays aren't blended twice and overlays keep the drawing order of the
+ * pathway. These clip shapes are computed once and kept with the tiles.
+ * <p>
+ * All tiles are dropped when the zoom factor changes or the owner calls
+ * {@link #invalidate()} after a change of its settings. A change of a single
+ * line, such as arriving data or a moved line, only drops the tiles under
+ * that line. The number of tiles is limited; the least recently painted
+ * tiles are dropped first.
+ */
+final class OverlayLayer {
+
+	/** Width and height of a tile in pixels */
+	static final int TILE_SIZE = 256;
+
+	/**
+	 * Draws the overlays of all lines that touch an area
+	 */
+	interface Painter {
+		/**
+		 * Draw the overlays touching the given area in view coordinates.
+		 * The graphics are clipped to that area.
+		 */
+		void paint(Graphics2D g2d, Rectangle area);
+
+		/**
+		 * The area the overlay of the given line covers in view coordinates,
+		 * including antialiased edges, or null if it has no overlay.
+		 */
+		Shape getShape(Line line);
+
+		/**
+		 * Position of the given line in drawing order, or -1 if unknown
+		 */
+		int getOrder(Line line);
+
+		/**
+		 * How far the overlay of a line may extend beyond its bounds
+		 */
+		double getMargin();
+	}
+
+	/** Cached for lines without an overlay */
+	private static final Shape NO_SHAPE = new Rectangle();
+
+	private final Map<Long, BufferedImage> tiles;
+	/** The pixels each line composites, dropped with any tile */
+	private final Map<Line, Shape> clips = new IdentityHashMap<Line, Shape>();
+	/** Areas to drop, in view coordinates, recorded from any thread */
+	private final Queue<Rectangle2D> dirtyAreas = new ConcurrentLinkedQueue<Rectangle2D>();
+	/** Areas to drop, in model coordinates, recorded by the EdgeIndex */
+	private final Queue<Rectangle2D> movedAreas = new ConcurrentLinkedQueue<Rectangle2D>();
+	private volatile boolean invalid;
+
+	private VPathway vPathway;
+	private EdgeIndex index;
+	private double zoomFactor;
+	private double margin;
+
+	private final EdgeIndex.ChangeListener indexListener = new EdgeIndex.ChangeListener() {
+		@Override
+		public void boundsChanged(Rectangle2D oldBounds, Rectangle2D newBounds) {
+			movedAreas.add(oldBounds);
+			movedAreas.add(newBounds);
+		}
+
+		@Override
+		public void indexRebuilt() {
+			invalid = true;
+		}
+	};
+
+	/**
+	 * @param maxPixels the maximum number of pixels of all tiles together
+	 */
+	OverlayLayer(int maxPixels) {
+		final int maxTiles = Math.max(1, maxPixels / (TILE_SIZE * TILE_SIZE));
+		tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+				return size() > maxTiles;
+			}
+		};
+	}
+
+	/**
+	 * Drop all tiles, e.g. after the settings of the owner have changed.
+	 * May be called from any thread.
+	 */
+	void invalidate() {
+		invalid = true;
+	}
+
+	/**
+	 * Drop the tiles under the given line, e.g. when its data has arrived.
+	 * May be called from any thread.
+	 */
+	void invalidate(Line line) {
+		Rectangle2D b = line.getVBounds();
+		if (b != null) {
+			dirtyAreas.add(b);
+		}
+	}
+
+	/**
+	 * Composite the pixels of the tiles that belong to the given line and
+	 * lie in the repainted area, rendering the tiles that are missing.
+	 *
+	 * @return false when not painting on the event dispatch thread, e.g. when
+	 * exporting an image, in which case the caller should draw the line itself
+	 */
+	synchronized boolean draw(Graphics2D g2d, Line line, Painter painter) {
+		if (!EventQueue.isDispatchThread()) return false;
+
+		VPathway vp = line.getDrawing();
+		EdgeIndex idx = EdgeIndex.get(vp);
+		if (vp != vPathway || idx != index || vp.getZoomFactor() != zoomFactor) {
+			if (index != null) {
+				index.removeChangeListener(indexListener);
+			}
+			idx.addChangeListener(indexListener);
+			vPathway = vp;
+			index = idx;
+			zoomFactor = vp.getZoomFactor();
+			invalid = true;
+		}
+		margin = painter.getMargin();
+		idx.refresh();
+		processInvalidations();
+
+		Rectangle2D b = line.getVBounds();
+		if (b == null) return true;
+		Rectangle area = new Rectangle(
+				(int) Math.floor(b.getMinX() - margin), (int) Math.floor(b.getMinY() - margin),
+				(int) Math.ceil(b.getWidth() + 2 * margin) + 1,
+				(int) Math.ceil(b.getHeight() + 2 * margin) + 1);
+		Rectangle bounds = g2d.getClipBounds();
+		if (bounds != null) {
+			area = area.intersection(bounds);
+		}
+		if (area.isEmpty()) return true;
+
+		// render the missing tiles first, this computes the lines in them
+		for (int col = tile(area.getMinX()); col <= tile(area.getMaxX() - 1); col++) {
+			for (int row = tile(area.getMinY()); row <= tile(area.getMaxY() - 1); row++) {
+				Long key = key(col, row);
+				if (tiles.get(key) == null) {
+					tiles.put(key, render(g2d, col, row, painter));
+				}
+			}
+		}
+
+		Shape clip = getClip(line, painter, idx);
+		if (clip == null) return true;
+		area = area.intersection(clip.getBounds());
+		if (area.isEmpty()) return true;
+
+		Shape oldClip = g2d.getClip();
+		g2d.clip(clip);
+		try {
+			for (int col = tile(area.getMinX()); col <= tile(area.getMaxX() - 1); col++) {
+				for (int row = tile(area.getMinY()); row <= tile(area.getMaxY() - 1); row++) {
+					BufferedImage img = tiles.get(key(col, row));
+					if (img == null) continue;
+					Rectangle part = area.intersection(new Rectangle(
+							col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+					int sx = part.x - col * TILE_SIZE;
+					int sy = part.y - row * TILE_SIZE;
+					g2d.drawImage(img, part.x, part.y, part.x + part.width, part.y + part.height,
+							sx, sy, sx + part.width, sy + part.height, null);
+				}
+			}
+		} finally {
+			g2d.setClip(oldClip);
+		}
+		return true;
+	}
+
+	/**
+	 * The pixels the given line composites: the area of its own overlay,
+	 * minus the overlays of the lines drawn after it.
+	 */
+	private Shape getClip(Line line, Painter painter, EdgeIndex idx) {
+		Shape clip = clips.get(line);
+		if (clip == null) {
+			clip = NO_SHAPE;
+			Shape own = painter.getShape(line);
+			int order = painter.getOrder(line);
+			if (own != null && order >= 0) {
+				clip = own;
+				Rectangle2D b = own.getBounds2D();
+				Area owned = null;
+				for (Line other : idx.query(b)) {
+					if (other == line || painter.getOrder(other) <= order) continue;
+					Shape s = painter.getShape(other);
+					if (s == null || !s.intersects(b)) continue;
+					if (owned == null) {
+						owned = new Area(own);
+					}
+					owned.subtract(new Area(s));
+				}
+				if (owned != null) {
+					clip = owned;
+				}
+			}
+			clips.put(line, clip);
+		}
+		return clip == NO_SHAPE ? null : clip;
+	}
+
+	private void processInvalidations() {
+		if (invalid) {
+			invalid = false;
+			tiles.clear();
+			clips.clear();
+			dirtyAreas.clear();
+			movedAreas.clear();
+			return;
+		}
+		Rectangle2D r;
+		while ((r = dirtyAreas.poll()) != null) {
+			dropTiles(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY());
+		}
+		while ((r = movedAreas.poll()) != null) {
+			dropTiles(vPathway.vFromM(r.getMinX()), vPathway.vFromM(r.getMinY()),
+					vPathway.vFromM(r.getMaxX()), vPathway.vFromM(r.getMaxY()));
+		}
+	}
+
+	private void dropTiles(double x0, double y0, double x1, double y1) {
+		// the shape of a changed line may change the clips of its neighbours
+		clips.clear();
+		int col0 = tile(x0 - margin);
+		int col1 = tile(x1 + margin);
+		int row0 = tile(y0 - margin);
+		int row1 = tile(y1 + margin);
+		if ((long) (col1 - col0 + 1) * (row1 - row0 + 1) > tiles.size()) {
+			// faster to check every tile
+			for (Iterator<Long> it = tiles.keySet().iterator(); it.hasNext();) {
+				long k = it.next();
+				int col = (int) (k >> 32);
+				int row = (int) k;
+				if (col >= col0 && col <= col1 && row >= row0 && row <= row1) {
+					it.remove();
+				}
+			}
+			return;
+		}
+		for (int col = col0; col <= col1; col++) {
+			for (int row = row0; row <= row1; row++) {
+				tiles.remove(key(col, row));
+			}
+		}
+	}
+
+	private static BufferedImage render(Graphics2D target, int col, int row, Painter painter) {
+		GraphicsConfiguration gc = target.getDeviceConfiguration();
+		BufferedImage img = gc == null
+				? new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB)
+				: gc.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.TRANSLUCENT);
+		Graphics2D g = img.createGraphics();
+		try {
+			g.setRenderingHints(target.getRenderingHints());
+			Rectangle area = new Rectangle(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+			g.translate(-area.x, -area.y);
+			g.setClip(area);
+			painter.paint(g, area);
+		} finally {
+			g.dispose();
+		}
+		return img;
+	}
+
+	private static int tile(double v) {
+		return (int) Math.floor(v / TILE_SIZE);
+	}
+
+	private static Long key(int col, int row) {
+		return ((long) col << 32) | (row & 0xffffffffL);
+	}
+}
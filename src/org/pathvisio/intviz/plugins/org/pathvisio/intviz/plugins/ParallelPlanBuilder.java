@@ -0,0 +1,147 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.desktop.visualization.ColorGradient;
+import org.pathvisio.desktop.visualization.ColorSet;
+import org.pathvisio.desktop.visualization.ColorSetObject;
+
+/**
+ * Computes all entries of a render plan, spread over the available cores.
+ * <p>
+ * The values of all lines are read into a SampleColumnStore on the calling
+ * thread, so the worker threads never touch the cache. Lines without
+ * cached data are handed to the sequential resolver, which requests their
+ * data. The remaining lines are split into chunks that are computed in
+ * parallel from the store. The caller waits for all chunks, so the plan
+ * is complete when it is published.
+ */
+final class ParallelPlanBuilder {
+
+	/** Plans with fewer lines are computed on the calling thread */
+	static final int PARALLEL_THRESHOLD = 512;
+	/** Number of chunks per thread, to even out chunks that take longer */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static ExecutorService executor;
+
+	private ParallelPlanBuilder() {}
+
+	/**
+	 * Compute the entries of all lines of the plan.
+	 *
+	 * @param parallel false if the value resolver may only be used on one
+	 * thread at a time, see {@link #isThreadSafe(ColorSet)}
+	 * @param store the values of the lines of the plan, in plan order
+	 * @param valueResolver computes the entry of a line whose data is in
+	 * the store, possibly on a worker thread
+	 * @param resolver computes the entry of a line without cached data,
+	 * on the calling thread
+	 */
+	static void resolveAll(final EdgeRenderPlan plan, boolean parallel, SampleColumnStore store,
+			final EdgeRenderPlan.Resolver valueResolver, EdgeRenderPlan.Resolver resolver) {
+		int n = plan.size();
+		final boolean[] loaded = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (store.refresh(i) == SampleColumnStore.PENDING) {
+				resolver.resolve(plan, i);
+			} else {
+				loaded[i] = true;
+			}
+		}
+		if (!parallel || n < PARALLEL_THRESHOLD || THREADS < 2) {
+			resolveLoaded(plan, loaded, 0, n, valueResolver);
+			return;
+		}
+
+		int chunks = Math.min(n, THREADS * CHUNKS_PER_THREAD);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			final int from = (int) ((long) n * c / chunks);
+			final int to = (int) ((long) n * (c + 1) / chunks);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					resolveLoaded(plan, loaded, from, to, valueResolver);
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (Future<Void> f : getExecutor().invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			resolveLoaded(plan, loaded, 0, n, valueResolver);
+		} catch (ExecutionException e) {
+			Logger.log.error("Unable to compute the render plan in parallel", e.getCause());
+			resolveLoaded(plan, loaded, 0, n, valueResolver);
+		}
+	}
+
+	private static void resolveLoaded(EdgeRenderPlan plan, boolean[] loaded, int from, int to,
+			EdgeRenderPlan.Resolver valueResolver) {
+		for (int i = from; i < to; i++) {
+			if (loaded[i]) {
+				valueResolver.resolve(plan, i);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the colors of the given color set can be computed on
+	 * several threads at once. Gradients only interpolate between fixed
+	 * values; rules evaluate expressions with shared state.
+	 */
+	static boolean isThreadSafe(ColorSet cs) {
+		if (cs == null) return true;
+		for (ColorSetObject o : cs.getObjects()) {
+			if (!(o instanceof ColorGradient)) return false;
+		}
+		return true;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private int count;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "IntViz render plan " + (++count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+}
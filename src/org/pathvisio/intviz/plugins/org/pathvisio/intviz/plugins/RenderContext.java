@@ -0,0 +1,60 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Color;
+
+import org.pathvisio.core.view.VPathway;
+
+/**
+ * Snapshot of everything a visualization method needs to paint its lines:
+ * the VPathway being drawn, its zoom factor and the resolved settings of
+ * the method. A snapshot is taken on the first line of a paint pass and
+ * reused for all following lines, until the settings, the pathway or the
+ * zoom factor change.
+ */
+final class RenderContext {
+
+	private final VPathway vPathway;
+	private final double zoomFactor;
+	private final Color posColor;
+	private final Color negColor;
+	private final ThicknessScale thicknessScale;
+
+	RenderContext(VPathway vPathway, Color posColor, Color negColor, ThicknessScale thicknessScale) {
+		this.vPathway = vPathway;
+		this.zoomFactor = vPathway == null ? 0 : vPathway.getZoomFactor();
+		this.posColor = posColor;
+		this.negColor = negColor;
+		this.thicknessScale = thicknessScale;
+	}
+
+	/**
+	 * Returns true if this snapshot was taken for the given VPathway
+	 * at its current zoom factor.
+	 */
+	boolean isValidFor(VPathway vp) {
+		if (vp != vPathway) return false;
+		return vp == null || vp.getZoomFactor() == zoomFactor;
+	}
+
+	VPathway getVPathway() { return vPathway; }
+	double getZoomFactor() { return zoomFactor; }
+	Color getPosColor() { return posColor; }
+	Color getNegColor() { return negColor; }
+	ThicknessScale getThicknessScale() { return thicknessScale; }
+}
@@ -0,0 +1,133 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.core.view.VPathwayWrapper;
+
+/**
+ * Collects the lines that have to be repainted after their data arrived
+ * and repaints them together, at most once per frame. When a pathway is
+ * opened, the data of hundreds of lines arrives one line at a time; instead
+ * of one repaint per line, the bounds of all lines that arrived within a
+ * frame are joined and repainted as one area per pathway. The timer is
+ * only touched on the event dispatch thread.
+ */
+final class RepaintCoalescer {
+
+	/** Delay between the first changed line and the repaint, in milliseconds */
+	static final int FRAME_DELAY = 33;
+
+	/** Changed lines and the margin their overlay may extend beyond their bounds */
+	private static Map<Line, Double> pending = new HashMap<Line, Double>();
+
+	private static final Timer timer = new Timer(FRAME_DELAY, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			flush();
+		}
+	});
+
+	static {
+		timer.setRepeats(false);
+	}
+
+	/** Set from the first changed line until the pending lines are taken */
+	private static final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private static final Runnable startTimer = new Runnable() {
+		@Override
+		public void run() {
+			timer.restart();
+		}
+	};
+
+	private RepaintCoalescer() {}
+
+	/**
+	 * Schedule a repaint of the given line, grown by the given margin on
+	 * all sides. May be called from any thread, e.g. a data callback.
+	 */
+	static void lineChanged(Line line, double margin) {
+		synchronized (RepaintCoalescer.class) {
+			Double m = pending.get(line);
+			if (m == null || m < margin) {
+				pending.put(line, margin);
+			}
+		}
+		// only the first line of a frame starts the timer
+		if (scheduled.compareAndSet(false, true)) {
+			EventQueue.invokeLater(startTimer);
+		}
+	}
+
+	/**
+	 * Repaint the joined areas of all changed lines. Runs on the event
+	 * dispatch thread.
+	 */
+	private static void flush() {
+		Map<Line, Double> lines;
+		synchronized (RepaintCoalescer.class) {
+			lines = pending;
+			pending = new HashMap<Line, Double>();
+			scheduled.set(false);
+		}
+
+		Map<VPathway, Rectangle2D> areas = new HashMap<VPathway, Rectangle2D>();
+		for (Map.Entry<Line, Double> e : lines.entrySet()) {
+			Line line = e.getKey();
+			VPathway vp = line.getDrawing();
+			if (vp == null) continue;
+
+			Rectangle2D b = line.getVBounds();
+			Rectangle2D d = EdgeIndex.get(vp).getDecoration(line);
+			if (d != null) {
+				double z = vp.vFromM(1);
+				Rectangle2D decorated = new Rectangle2D.Double(d.getX() * z, d.getY() * z,
+						d.getWidth() * z, d.getHeight() * z);
+				b = b == null ? decorated : b.createUnion(decorated);
+			}
+			if (b == null) continue;
+			double m = e.getValue();
+			b = new Rectangle2D.Double(b.getX() - m, b.getY() - m,
+					b.getWidth() + 2 * m, b.getHeight() + 2 * m);
+
+			Rectangle2D area = areas.get(vp);
+			areas.put(vp, area == null ? b : area.createUnion(b));
+		}
+
+		for (Map.Entry<VPathway, Rectangle2D> e : areas.entrySet()) {
+			VPathwayWrapper wrapper = e.getKey().getWrapper();
+			if (wrapper == null) continue;
+			Rectangle r = e.getValue().getBounds();
+			r.grow(1, 1);
+			wrapper.redraw(r);
+		}
+	}
+}
@@ -0,0 +1,255 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.swing.JComboBox;
+
+import org.bridgedb.Xref;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+import org.pathvisio.desktop.gex.CachedData;
+import org.pathvisio.desktop.gex.ReporterData;
+
+/**
+ * How the edge visualization methods combine the data of an interaction
+ * that maps to several rows of the dataset, e.g. several probes.
+ * <p>
+ * The combined value of each Xref is computed once per sample and mode and
+ * kept until another dataset is connected. Numeric values are combined
+ * with the selected mode; other values are summarized as in
+ * {@link ReporterData#createListSummary(List)}, which is made once per Xref
+ * and shared by the combined rows of all modes.
+ */
+final class RowAggregation {
+
+	/** Use the first row, ignoring the others */
+	static final int FIRST = 0;
+	/** Average of all rows */
+	static final int MEAN = 1;
+	/** Median of all rows */
+	static final int MEDIAN = 2;
+	/** Value with the largest absolute value, keeping its sign */
+	static final int MAX_ABS = 3;
+	/** Sum of all rows */
+	static final int SUM = 4;
+
+	static final String[] LABELS = {
+		"First row", "Mean", "Median", "Largest absolute value", "Sum"
+	};
+	private static final String[] XML_VALUES = {
+		"first", "mean", "median", "max-abs", "sum"
+	};
+
+	static final String XML_ATTR = "aggregation";
+
+	/**
+	 * The summary row of one Xref and its combined rows, one per mode
+	 */
+	private static final class Entry {
+		IRow summary;
+		final CombinedRow[] rows = new CombinedRow[XML_VALUES.length];
+	}
+
+	/**
+	 * A row with the combined values of the samples that were asked for,
+	 * falling back to the summary row for the other samples. Values are
+	 * only added, never changed, so the row can be read while values for
+	 * other samples are added.
+	 */
+	private static final class CombinedRow implements IRow {
+		/** Stored for a sample without numeric values */
+		private static final Object NO_VALUE = new Object();
+
+		private final IRow summary;
+		private final Map<ISample, Object> values = new ConcurrentHashMap<ISample, Object>();
+		private volatile Map<String, Object> byName;
+
+		CombinedRow(IRow summary) {
+			this.summary = summary;
+		}
+
+		boolean hasSample(ISample sample) {
+			return values.containsKey(sample);
+		}
+
+		void setSampleData(ISample sample, Object value) {
+			values.put(sample, value == null ? NO_VALUE : value);
+			byName = null;
+		}
+
+		@Override
+		public Object getSampleData(ISample sample) {
+			Object v = values.get(sample);
+			return v == null || v == NO_VALUE ? summary.getSampleData(sample) : v;
+		}
+
+		@Override
+		public Map<String, Object> getByName() {
+			Map<String, Object> result = byName;
+			if (result == null) {
+				result = new HashMap<String, Object>(summary.getByName());
+				for (Map.Entry<ISample, Object> v : values.entrySet()) {
+					if (v.getValue() != NO_VALUE) {
+						result.put(v.getKey().getName(), v.getValue());
+					}
+				}
+				byName = result;
+			}
+			return result;
+		}
+
+		@Override
+		public Xref getXref() {
+			return summary.getXref();
+		}
+
+		@Override
+		public int getGroup() {
+			return summary.getGroup();
+		}
+	}
+
+	private static final ConcurrentMap<Xref, Entry> entries = new ConcurrentHashMap<Xref, Entry>();
+	private static volatile CachedData cachedData;
+
+	private RowAggregation() {}
+
+	/**
+	 * Get a row with the combined value of the given rows for the given
+	 * sample. For a single row, or in FIRST mode, the first row is returned.
+	 * May be called from any thread.
+	 *
+	 * @param cache the cache the rows came from; the stored rows are
+	 * dropped when it changes
+	 */
+	static IRow aggregate(CachedData cache, Xref xref, List<? extends IRow> rows,
+			ISample sample, int mode) {
+		if (rows.size() == 1 || mode <= FIRST || mode >= XML_VALUES.length) {
+			return rows.get(0);
+		}
+
+		if (cache != cachedData) {
+			synchronized (RowAggregation.class) {
+				if (cache != cachedData) {
+					entries.clear();
+					cachedData = cache;
+				}
+			}
+		}
+		Entry e = entries.get(xref);
+		if (e == null) {
+			Entry existing = entries.putIfAbsent(xref, e = new Entry());
+			if (existing != null) {
+				e = existing;
+			}
+		}
+
+		CombinedRow row;
+		synchronized (e) {
+			row = e.rows[mode];
+			if (row == null) {
+				if (e.summary == null) {
+					e.summary = ReporterData.createListSummary(rows);
+				}
+				row = new CombinedRow(e.summary);
+				e.rows[mode] = row;
+			}
+		}
+		if (!row.hasSample(sample)) {
+			row.setSampleData(sample, combine(rows, sample, mode));
+		}
+		return row;
+	}
+
+	/**
+	 * Combine the numeric values of the given sample, or return null if
+	 * there are none and the summary value should be used.
+	 */
+	private static Double combine(List<? extends IRow> rows, ISample sample, int mode) {
+		double[] v = new double[rows.size()];
+		int n = 0;
+		for (IRow r : rows) {
+			Object o = r.getSampleData(sample);
+			if (o instanceof Double && !Double.isNaN((Double) o)) {
+				v[n++] = (Double) o;
+			}
+		}
+		if (n == 0) return null;
+
+		switch (mode) {
+		case MEAN:
+			return sum(v, n) / n;
+		case MEDIAN:
+			Arrays.sort(v, 0, n);
+			return n % 2 == 1 ? v[n / 2] : (v[n / 2 - 1] + v[n / 2]) / 2;
+		case MAX_ABS:
+			double max = v[0];
+			for (int i = 1; i < n; i++) {
+				if (Math.abs(v[i]) > Math.abs(max)) {
+					max = v[i];
+				}
+			}
+			return max;
+		case SUM:
+			return sum(v, n);
+		default:
+			return v[0];
+		}
+	}
+
+	private static double sum(double[] v, int n) {
+		double s = 0;
+		for (int i = 0; i < n; i++) {
+			s += v[i];
+		}
+		return s;
+	}
+
+	static String toXML(int mode) {
+		return XML_VALUES[mode];
+	}
+
+	/**
+	 * Parse the mode stored by {@link #toXML(int)}, or return the fallback
+	 * if the value is missing or unknown.
+	 */
+	static int fromXML(String value, int fallback) {
+		for (int i = 0; i < XML_VALUES.length; i++) {
+			if (XML_VALUES[i].equals(value)) {
+				return i;
+			}
+		}
+		return fallback;
+	}
+
+	/**
+	 * Combo box to choose a mode; the selected index is the mode.
+	 */
+	static JComboBox createComboBox(int mode) {
+		JComboBox combo = new JComboBox(LABELS);
+		combo.setSelectedIndex(mode);
+		combo.setToolTipText("How to combine the data of an interaction that matches several rows");
+		return combo;
+	}
+}
@@ -0,0 +1,233 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.bridgedb.Xref;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+import org.pathvisio.desktop.gex.CachedData;
+
+/**
+ * The numeric values of the selected samples for all lines of a VPathway,
+ * kept as one double[] column per sample and indexed by the position of
+ * the line in the pathway, the same position an EdgeRenderPlan made for
+ * the pathway at the same time gives it.
+ * <p>
+ * The values are read from the CachedData and combined with the
+ * RowAggregation mode once, when the store is made, instead of being
+ * unboxed from the data rows for every line on every paint or plan
+ * rebuild. A store only changes when the data of a line arrives; it is
+ * replaced when the pathway, the dataset, the samples or the aggregation
+ * mode change. Values that are missing or not numeric are NaN.
+ * <p>
+ * Color sets that are evaluated on data rows need the combined row of each
+ * line; only stores made for them keep these rows, resolved once when the
+ * line is read.
+ */
+final class SampleColumnStore {
+
+	/** The line has no data rows; all its values are NaN */
+	static final byte NO_ROWS = 0;
+	/** The data of the line isn't cached yet */
+	static final byte PENDING = 1;
+	/** The data of the line has arrived, its values need to be read */
+	static final byte STALE = 2;
+	/** The values of the line are available */
+	static final byte LOADED = 3;
+
+	private final VPathway vPathway;
+	private final CachedData cachedData;
+	private final int xrefVersion;
+	private final ISample[] samples;
+	private final int aggregation;
+	private final Line[] lines;
+	private final Map<Line, Integer> ordinals;
+	private final double[][] columns;
+	/** Combined data row of each sample and line, or null if not kept */
+	private final IRow[][] rows;
+	private final byte[] states;
+	/** Lines marked stale on other threads, applied by the reading thread */
+	private final Queue<Integer> staleLines = new ConcurrentLinkedQueue<Integer>();
+
+	/**
+	 * Read the values of the given samples for all lines of the pathway
+	 * that are in the cache. Must be called on the thread that draws the
+	 * pathway.
+	 *
+	 * @param keepRows keep the combined data rows, see {@link #getRow(int, int)}
+	 */
+	SampleColumnStore(VPathway vPathway, CachedData cachedData,
+			List<ISample> samples, int aggregation, boolean keepRows) {
+		this.vPathway = vPathway;
+		this.cachedData = cachedData;
+		xrefVersion = XrefCache.getVersion();
+		this.samples = samples.toArray(new ISample[samples.size()]);
+		this.aggregation = aggregation;
+		List<Line> l = EdgeRenderPlan.getLines(vPathway);
+		lines = l.toArray(new Line[l.size()]);
+		ordinals = new IdentityHashMap<Line, Integer>(lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			ordinals.put(lines[i], i);
+		}
+		columns = new double[this.samples.length][lines.length];
+		rows = keepRows ? new IRow[this.samples.length][lines.length] : null;
+		states = new byte[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			load(i);
+		}
+	}
+
+	/**
+	 * Return the given store if it is still valid for the pathway and
+	 * dataset of the plan, has the lines of the plan in the same order and
+	 * keeps the data rows if they are needed, otherwise a new store.
+	 */
+	static SampleColumnStore update(SampleColumnStore store, EdgeRenderPlan plan,
+			List<ISample> samples, int aggregation, boolean keepRows) {
+		if (store != null && store.isValidFor(plan.getVPathway(), plan.getCachedData(), aggregation)
+				&& (store.keepsRows() || !keepRows)
+				&& Arrays.asList(store.samples).equals(samples) && store.matches(plan)) {
+			return store;
+		}
+		return new SampleColumnStore(plan.getVPathway(), plan.getCachedData(),
+				samples, aggregation, keepRows);
+	}
+
+	/**
+	 * Returns true if this store was made for the given pathway, dataset
+	 * and aggregation mode and no element identifiers have been edited
+	 * since. The samples and lines are checked separately.
+	 */
+	boolean isValidFor(VPathway vp, CachedData cache, int mode) {
+		return vp == vPathway && cache == cachedData
+				&& xrefVersion == XrefCache.getVersion() && mode == aggregation;
+	}
+
+	private boolean matches(EdgeRenderPlan plan) {
+		if (plan.size() != lines.length) return false;
+		for (int i = 0; i < lines.length; i++) {
+			if (plan.getLine(i) != lines[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Read the values of a line from the cache
+	 */
+	private void load(int index) {
+		Xref idc = XrefCache.getXref(lines[index]);
+		if (!cachedData.hasData(idc)) {
+			states[index] = PENDING;
+			return;
+		}
+		List<? extends IRow> data = cachedData.getData(idc);
+		for (int c = 0; c < samples.length; c++) {
+			double v = Double.NaN;
+			if (data.size() > 0) {
+				IRow row = RowAggregation.aggregate(cachedData, idc, data, samples[c], aggregation);
+				if (rows != null) {
+					rows[c][index] = row;
+				}
+				Object o = row.getSampleData(samples[c]);
+				if (o instanceof Double) {
+					v = (Double) o;
+				}
+			}
+			columns[c][index] = v;
+		}
+		states[index] = data.size() > 0 ? LOADED : NO_ROWS;
+	}
+
+	int getColumnCount() { return samples.length; }
+	boolean keepsRows() { return rows != null; }
+	ISample getSample(int column) { return samples[column]; }
+	int size() { return lines.length; }
+	Line getLine(int index) { return lines[index]; }
+
+	/**
+	 * Position of the given line in this store, or -1 if the line
+	 * was not part of the pathway when the store was made.
+	 */
+	int indexOf(Line line) {
+		Integer i = ordinals.get(line);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * State of a line, after reading its values if its data has arrived.
+	 * Lines are read on the thread that draws the pathway.
+	 */
+	byte refresh(int index) {
+		applyStale();
+		if (states[index] == STALE) {
+			load(index);
+		}
+		return states[index];
+	}
+
+	byte getState(int index) {
+		applyStale();
+		return states[index];
+	}
+
+	/**
+	 * Mark a line for reading, e.g. when its data has been loaded.
+	 * May be called from any thread; the line is read on the thread
+	 * that draws the pathway.
+	 */
+	void markStale(int index) {
+		staleLines.add(index);
+	}
+
+	private void applyStale() {
+		Integer i;
+		while ((i = staleLines.poll()) != null) {
+			states[i] = STALE;
+		}
+	}
+
+	/**
+	 * The value of the sample of the given column for a line, or NaN.
+	 * May be called from any thread.
+	 */
+	double getValue(int column, int index) {
+		return columns[column][index];
+	}
+
+	/**
+	 * The combined data row of a line for the sample of the given column,
+	 * for evaluating color sets. Must only be called for loaded lines.
+	 * A store that doesn't keep its rows combines them again from the cache.
+	 */
+	IRow getRow(int column, int index) {
+		if (rows != null) {
+			return rows[column][index];
+		}
+		Xref idc = XrefCache.getXref(lines[index]);
+		return RowAggregation.aggregate(cachedData, idc, cachedData.getData(idc),
+				samples[column], aggregation);
+	}
+}
@@ -0,0 +1,73 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.BasicStroke;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.pathvisio.core.model.LineStyle;
+
+/**
+ * Shared cache of the strokes used by the line visualization methods.
+ * Strokes are immutable, so one instance per (width, line style) can be
+ * reused by every line instead of allocating a new one on each paint.
+ * Widths are rounded to a quarter pixel to keep the number of entries small.
+ */
+final class StrokeCache {
+
+	/** Number of steps per pixel that widths are rounded to */
+	private static final int WIDTH_STEPS = 4;
+	private static final float[] DASH = new float[] { 4, 4 };
+
+	private static final ConcurrentMap<Integer, BasicStroke> strokes =
+			new ConcurrentHashMap<Integer, BasicStroke>();
+
+	private StrokeCache() {}
+
+	/**
+	 * Get a stroke of the given width for the given PathwayElement line style.
+	 * Dashed lines get a dashed stroke, all other styles a solid one.
+	 */
+	static BasicStroke getStroke(float width, int lineStyle) {
+		boolean dashed = lineStyle == LineStyle.DASHED;
+		int steps = Math.max(0, Math.round(width * WIDTH_STEPS));
+		Integer key = (steps << 1) | (dashed ? 1 : 0);
+		BasicStroke stroke = strokes.get(key);
+		if (stroke == null) {
+			float w = (float) steps / WIDTH_STEPS;
+			if (dashed) {
+				stroke = new BasicStroke(w, BasicStroke.CAP_SQUARE,
+						BasicStroke.JOIN_MITER, 10, DASH, 0);
+			} else {
+				stroke = new BasicStroke(w);
+			}
+			BasicStroke existing = strokes.putIfAbsent(key, stroke);
+			if (existing != null) {
+				stroke = existing;
+			}
+		}
+		return stroke;
+	}
+
+	/**
+	 * Get a solid stroke of the given width, e.g. for drawing arrow heads
+	 */
+	static BasicStroke getSolidStroke(float width) {
+		return getStroke(width, LineStyle.SOLID);
+	}
+}
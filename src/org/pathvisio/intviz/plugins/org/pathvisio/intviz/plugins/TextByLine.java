@@ -19,12 +19,13 @@ package org.pathvisio.intviz.plugins;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.font.TextLayout;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
@@ -32,6 +33,7 @@ import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSpinner;
@@ -41,7 +43,6 @@ import javax.swing.event.ChangeListener;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
-import org.bridgedb.DataSource;
 import org.bridgedb.Xref;
 import org.jdom.Element;
 import org.pathvisio.core.debug.Logger;
@@ -53,7 +54,6 @@ import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.gex.CachedData;
 import org.pathvisio.desktop.gex.GexManager;
-import org.pathvisio.desktop.gex.ReporterData;
 import org.pathvisio.desktop.visualization.AbstractVisualizationMethod;
 import org.pathvisio.gui.dialogs.OkCancelDialog;
 import org.pathvisio.gui.util.FontChooser;
@@ -75,15 +75,23 @@ ActionListener, ListDataListener {
 	static final int SPACING = 20;
 	static final String ACTION_SAMPLE = "sample";
 	static final String ACTION_APPEARANCE = "Appearance...";
+	static final String ACTION_DETAIL = "Level of detail...";
+	static final int GLYPH_CACHE_SIZE = 4096;
 
 	final static String SEP = ", ";
 	int roundTo = 2;
+	/** Combine multiple rows with the aggregation mode, instead of listing them all */
 	boolean mean = false;
+	int aggregation = RowAggregation.MEAN;
 
 	Font font;
+	LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
 	List<ISample> useSamples = new ArrayList<ISample>();
 
 	private final GexManager gexManager;
+	private final GlyphCache glyphCache = new GlyphCache(GLYPH_CACHE_SIZE);
+	private final ZoomFontCache zoomFonts = new ZoomFontCache();
+	private final DecimalFormatter formatter = new DecimalFormatter();
 
 	public TextByLine(GexManager gexManager) {
 		this.gexManager = gexManager;
@@ -105,15 +113,18 @@ ActionListener, ListDataListener {
 	public void visualizeOnDrawing(Graphics g , Graphics2D g2d) {
 		if(g instanceof Line) {
 			Line gp = (Line) g;
+			if (useSamples.size() == 0) return;
+			if (!levelOfDetail.showText(gp.getDrawing())) return;
+
+			Font f = getFont(gp.getDrawing());
+			if (!EdgeCulling.isVisible(gp, g2d, getTextMargin(gp, f, g2d))) return;
 
 			CachedData  cache = gexManager.getCachedData();
 			if (cache == null) return;
 
-			String id = gp.getPathwayElement().getGeneID();
-			DataSource ds = gp.getPathwayElement().getDataSource();
-			Xref idc = new Xref(id, ds);
+			Xref idc = XrefCache.getXref(gp);
 
-			if (cache == null || !cache.hasData(idc) || useSamples.size() == 0)
+			if (!cache.hasData(idc))
 				return;
 
 			g2d = (Graphics2D)g2d.create();
@@ -131,33 +142,52 @@ ActionListener, ListDataListener {
 				starty = (int)(start.getY()+ SPACING);
 			}
 
-			Font f = getFont(true);
 			g2d.setFont(f);
-			int th = g2d.getFontMetrics().getHeight();
+			int th = zoomFonts.getFontMetrics(f, g2d).getHeight();
 			int w = 0, i = 0;
 			for(ISample s : useSamples) {
-				String str = getDataString(s, cache.getData(idc), SEP + "\n") +
+				String str = getDataString(s, idc, cache.getData(idc), SEP + "\n") +
 						(++i == useSamples.size() ? "" : SEP);
 				if (str.length() == 0) {
 					continue;
 				}
-				TextLayout tl = new TextLayout(str, f, g2d.getFontRenderContext());
-				Rectangle2D tb = tl.getBounds();
-				g2d.drawString(str, startx + w, starty + th / 2);
+				GlyphCache.Glyphs glyphs = glyphCache.get(str, f, g2d.getFontRenderContext());
+				Rectangle2D tb = glyphs.getBounds();
+				g2d.drawGlyphVector(glyphs.getGlyphVector(), startx + w, starty + th / 2);
 				w += tb.getWidth() - SPACING;
 			}
+			if (w > 0) {
+				EdgeIndex.get(gp.getDrawing()).setDecoration(this, gp,
+						new Rectangle(startx, starty - th / 2, w + SPACING, th * 2));
+			}
 		}
 	}
 
+	/**
+	 * Distance around a line in which its text may be drawn. Once the text
+	 * of a line was drawn, its area is a decoration in the EdgeIndex and
+	 * only the spacing is added. Before that the width is estimated from
+	 * the width of a digit, the number of decimals and the number of
+	 * samples, so lines that weren't drawn yet aren't culled.
+	 */
+	private double getTextMargin(Line line, Font f, Graphics2D g2d) {
+		VPathway vp = line.getDrawing();
+		if (vp != null && EdgeIndex.get(vp).getDecoration(this, line) != null) {
+			return SPACING;
+		}
+		FontMetrics fm = zoomFonts.getFontMetrics(f, g2d);
+		// sign, two integer digits, decimal point and decimals
+		int chars = getRoundTo() + 4 + SEP.length();
+		return SPACING * 2 + fm.getHeight() + useSamples.size() * chars * fm.charWidth('0');
+	}
+
 	@Override
 	public Component visualizeOnToolTip(Graphics g) {
 		if(g instanceof Line) {
 			Line gp = (Line) g;
 			CachedData  cache = gexManager.getCachedData();
 
-			Xref idc = new Xref(
-					gp.getPathwayElement().getGeneID(),
-					gp.getPathwayElement().getDataSource());
+			Xref idc = XrefCache.getXref(gp);
 
 			if (!cache.hasData(idc) || useSamples.size() == 0)
 				return null;
@@ -172,7 +202,7 @@ ActionListener, ListDataListener {
 				gbc.gridx = 0;
 				panel.add(new JLabel(getLabelLeftText(s)), gbc);
 				gbc.gridx = 1;
-				panel.add(new JLabel(getLabelRightText(s, cache.getData(idc))), gbc);
+				panel.add(new JLabel(getLabelRightText(s, idc, cache.getData(idc))), gbc);
 			}
 			return panel;
 		} else return null;
@@ -182,14 +212,14 @@ ActionListener, ListDataListener {
 		return s.getName() + ":";
 	}
 
-	String getLabelRightText(ISample s, List<? extends IRow> list) {
-		return getDataString(s, list, SEP);
+	String getLabelRightText(ISample s, Xref idc, List<? extends IRow> list) {
+		return getDataString(s, idc, list, SEP);
 	}
 
-	String getDataString(ISample s, List<? extends IRow> list, String multSep) {
+	String getDataString(ISample s, Xref idc, List<? extends IRow> list, String multSep) {
 		Object str = null;
 		if (list.size() > 1) {
-			str = formatData(getSampleStringMult(s, list, multSep));
+			str = formatData(getSampleStringMult(s, idc, list, multSep));
 		} else if (list.size() == 1) {
 			str =  formatData(getSampleData(s, list.get(0)));
 		}
@@ -200,14 +230,17 @@ ActionListener, ListDataListener {
 		return iRow.getSampleData(s);
 	}
 
-	Object getSampleStringMult(ISample s, List<? extends IRow> list, String sep) {
-		if(mean) return ReporterData.createListSummary(list).getSampleData(s);
+	Object getSampleStringMult(ISample s, Xref idc, List<? extends IRow> list, String sep) {
+		if(mean) {
+			return RowAggregation.aggregate(gexManager.getCachedData(), idc, list, s, aggregation)
+					.getSampleData(s);
+		}
 
 		StringBuilder strb = new StringBuilder();
 		for(IRow d : list) {
 			String str = "" + formatData(d.getSampleData(s));
 			if(!str.equals("NaN")) {
-				strb.append(str + sep);
+				strb.append(str).append(sep);
 			}
 		}
 		return strb.length() > sep.length() ? strb.substring(0, strb.length() - sep.length()) : strb;
@@ -215,13 +248,7 @@ ActionListener, ListDataListener {
 
 	Object formatData(Object data) {
 		if(data instanceof Double) {
-			double d = (Double)data;
-
-			if(Double.isNaN(d)) return "NaN";
-
-			int dec = (int)Math.pow(10, getRoundTo());
-			double rounded = (double)(Math.round(d * dec)) / dec;
-			data = dec == 1 ? Integer.toString((int)rounded) : Double.toString(rounded);
+			data = formatter.format((Double)data, getRoundTo());
 		}
 		return data;
 	}
@@ -238,15 +265,18 @@ ActionListener, ListDataListener {
 	}
 
 	Font getFont(boolean adjustZoom) {
-		Font f = font == null ? DEFAULT_FONT : font;
 		if(adjustZoom) {
-			VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-			if(vp != null) {
-				int size = (int)Math.ceil(vp.vFromM(f.getSize()));
-				f = new Font(f.getName(), f.getStyle(), size);
-			}
+			return getFont(getVisualization().getManager().getEngine().getActiveVPathway());
 		}
-		return f;
+		return font == null ? DEFAULT_FONT : font;
+	}
+
+	/**
+	 * Get the font adjusted to the zoom factor of the given pathway.
+	 * The zoomed font is shared by all lines drawn at the same zoom level.
+	 */
+	Font getFont(VPathway vp) {
+		return zoomFonts.getFont(font == null ? DEFAULT_FONT : font, vp);
 	}
 
 	public int getRoundTo() { return roundTo; }
@@ -260,6 +290,19 @@ ActionListener, ListDataListener {
 
 	public void setCalcMean(boolean doCalcMean) {
 		mean = doCalcMean;
+		aggregation = RowAggregation.MEAN;
+		modified();
+	}
+
+	/**
+	 * Combine multiple rows with the given RowAggregation mode, or list
+	 * all rows if the mode is negative.
+	 */
+	void setAggregation(int mode) {
+		mean = mode >= 0;
+		if (mean) {
+			aggregation = mode;
+		}
 		modified();
 	}
 
@@ -269,7 +312,7 @@ ActionListener, ListDataListener {
 	public JPanel getConfigurationPanel() {
 		JPanel panel = new JPanel();
 		FormLayout layout = new FormLayout(
-				"4dlu, pref, fill:pref:grow, 4dlu",
+				"4dlu, pref, 4dlu, pref, fill:pref:grow, 4dlu",
 				"4dlu, pref, 4dlu, fill:pref:grow, 4dlu, pref, 4dlu");
 		panel.setLayout(layout);
 
@@ -283,10 +326,15 @@ ActionListener, ListDataListener {
 		appearance.setActionCommand(ACTION_APPEARANCE);
 		appearance.addActionListener(this);
 
+		JButton detail = new JButton(ACTION_DETAIL);
+		detail.setActionCommand(ACTION_DETAIL);
+		detail.addActionListener(this);
+
 		CellConstraints cc = new CellConstraints();
-		panel.add(new JLabel("Select samples:"), cc.xyw(2, 2, 2));
-		panel.add(sampleList, cc.xyw(2, 4, 2));
+		panel.add(new JLabel("Select samples:"), cc.xyw(2, 2, 4));
+		panel.add(sampleList, cc.xyw(2, 4, 4));
 		panel.add(appearance, cc.xy(2, 6));
+		panel.add(detail, cc.xy(4, 6));
 		return panel;
 	}
 
@@ -302,9 +350,22 @@ ActionListener, ListDataListener {
 			optionsDlg.setDialogComponent(createAppearancePanel());
 			optionsDlg.pack();
 			optionsDlg.setVisible(true);
+		} else if(ACTION_DETAIL.equals(action)) {
+			LevelOfDetail.showDialog((Component)e.getSource(), levelOfDetail, LevelOfDetail.TEXT,
+					new LevelOfDetail.Listener() {
+				@Override
+				public void levelOfDetailChanged(LevelOfDetail lod) {
+					setLevelOfDetail(lod);
+				}
+			});
 		}
 	}
 
+	void setLevelOfDetail(LevelOfDetail lod) {
+		levelOfDetail = lod;
+		modified();
+	}
+
 	JPanel createAppearancePanel() {
 		final JLabel preview = new JLabel(getFont().getFamily());
 		preview.setOpaque(true);
@@ -340,6 +401,20 @@ ActionListener, ListDataListener {
 		builder.append("Font: ", preview, font);
 		builder.nextLine();
 		builder.append("Display precision:", precision, 3);
+		builder.nextLine();
+
+		String[] modes = new String[RowAggregation.LABELS.length + 1];
+		modes[0] = "List all rows";
+		System.arraycopy(RowAggregation.LABELS, 0, modes, 1, RowAggregation.LABELS.length);
+		final JComboBox rows = new JComboBox(modes);
+		rows.setSelectedIndex(mean ? aggregation + 1 : 0);
+		rows.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				setAggregation(rows.getSelectedIndex() - 1);
+			}
+		});
+		builder.append("Multiple rows:", rows, 3);
 		return builder.getPanel();
 	}
 
@@ -373,6 +448,8 @@ ActionListener, ListDataListener {
 		elm.setAttribute(XML_ATTR_FONTDATA, Utils.encodeFont(getFont()));
 		elm.setAttribute(XML_ATTR_ROUND, Integer.toString(getRoundTo()));
 		elm.setAttribute(XML_ATTR_AVG, Boolean.toString(mean));
+		elm.setAttribute(RowAggregation.XML_ATTR, RowAggregation.toXML(aggregation));
+		elm.addContent(levelOfDetail.toXML());
 		for(ISample s : useSamples) {
 			Element selm = new Element(XML_ELM_ID);
 			selm.setText(Integer.toString(s.getId()));
@@ -394,8 +471,12 @@ ActionListener, ListDataListener {
 			} catch(Exception e) { Logger.log.error("Unable to add sample", e); }
 		}
 		roundTo = Integer.parseInt(xml.getAttributeValue(XML_ATTR_ROUND));
-		setFont(Font.decode(xml.getAttributeValue(XML_ATTR_FONTDATA)));
+		// assigned directly: setFont notifies a visualization that may not exist yet
+		font = Font.decode(xml.getAttributeValue(XML_ATTR_FONTDATA));
 		mean = Boolean.parseBoolean(xml.getAttributeValue(XML_ATTR_AVG));
+		aggregation = RowAggregation.fromXML(
+				xml.getAttributeValue(RowAggregation.XML_ATTR), RowAggregation.MEAN);
+		levelOfDetail = LevelOfDetail.fromXML(xml, LevelOfDetail.DEFAULT);
 	}
 
 	@Override
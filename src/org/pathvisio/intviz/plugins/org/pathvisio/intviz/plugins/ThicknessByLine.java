@@ -1,23 +1,20 @@
 package org.pathvisio.intviz.plugins;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.swing.JPanel;
 
-import org.bridgedb.Xref;
 import org.jdom.Element;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.view.ArrowShape;
 import org.pathvisio.core.view.Graphics;
 import org.pathvisio.core.view.Line;
-import org.pathvisio.core.view.VPathway;
 import org.pathvisio.data.DataException;
-import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
 import org.pathvisio.desktop.gex.CachedData;
 import org.pathvisio.desktop.gex.CachedData.Callback;
@@ -40,6 +37,9 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 	static final String DEFAULT_MAXLINETHICKNESS = "7";
 	static final String DEFAULT_MINDATAVALUE = "1";
 	static final String DEFAULT_MAXDATAVALUE = "10";
+	static final ThicknessScale DEFAULT_THICKNESS_SCALE = ThicknessScale.parse(
+			DEFAULT_MINLINETHICKNESS, DEFAULT_MAXLINETHICKNESS,
+			DEFAULT_MINDATAVALUE, DEFAULT_MAXDATAVALUE, null);
 	
 	Color c = Color.BLACK;
 	
@@ -48,6 +48,11 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 	String maxlinethickness;
 	String mindatavalue;
 	String maxdatavalue;
+	private ThicknessScale thicknessScale = DEFAULT_THICKNESS_SCALE;
+	private int aggregation = RowAggregation.FIRST;
+	/** Values of the selected sample for all lines of the pathway */
+	private SampleColumnStore columnStore;
+	private LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;
 
 	private final GexManager gexManager;
 	private final ColorSetManager csm;
@@ -143,10 +148,7 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 
 	void drawArea(final Line gp, Graphics g, Graphics2D g2d) {
 		int nr = useSamples.size();
-		g2d.setClip(null);
 		ConfiguredSample s = useSamples.get(nr - 1);
-		Xref idc = new Xref(gp.getPathwayElement().getGeneID(), gp
-				.getPathwayElement().getDataSource());
 		CachedData cache = gexManager.getCachedData();
 		if (cache == null)
 			return;
@@ -155,35 +157,49 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 			Logger.log.trace("No colorset for sample " + s);
 			return; // No ColorSet for this sample
 		}
-		if (cache.hasData(idc))
+		final SampleColumnStore store = getColumnStore(gp, cache, s.getSample());
+		final int index = store.indexOf(gp);
+		if (store.refresh(index) != SampleColumnStore.PENDING)
 		{
-			List<? extends IRow> data = cache.getData(idc);
-			if (data.size() > 0) {
-				drawSample(s, data, gp, g2d);
+			double datavalue = store.getValue(0, index);
+			if (!Double.isNaN(datavalue)) {
+				changeLineThickness(gp, g2d, datavalue);
 			}
 		} else {
-			cache.asyncGet(idc, new Callback()
+			cache.asyncGet(XrefCache.getXref(gp), new Callback()
 			{
 				@Override
 				public void callback()
 				{
-					gp.markDirty();
+					store.markStale(index);
+					RepaintCoalescer.lineChanged(gp,
+							EdgeCulling.strokeMargin(thicknessScale.getMaxThickness()));
 				}
 			});
 		}
 	}
 
-	private void drawSample(ConfiguredSample s, List<? extends IRow> data,
-			Line gp, Graphics2D g2d) {
-		ColorSet cs = s.getColorSet();
-		Color rgb = cs.getColor(data.get(0), s.getSample());
-		ISample sample = s.getSample();
-		IRow dataval = data.get(0);
-		changeLineThickness(gp, g2d, dataval, sample);
+	/**
+	 * Get the values of the given sample for the pathway of the given line,
+	 * reading them again if the pathway, the dataset, the sample or the
+	 * aggregation mode have changed, or if the line was added after they
+	 * were read.
+	 */
+	private SampleColumnStore getColumnStore(Line gp, CachedData cache, ISample sample) {
+		SampleColumnStore store = columnStore;
+		if (store == null || !store.isValidFor(gp.getDrawing(), cache, aggregation)
+				|| store.getSample(0) != sample || store.indexOf(gp) < 0) {
+			store = new SampleColumnStore(gp.getDrawing(), cache,
+					Collections.singletonList(sample), aggregation, false);
+			columnStore = store;
+		}
+		return store;
 	}
+
 	protected void setMinThickness(String minT) {
 		if (minT !=null ){
 			minlinethickness = minT;
+			updateThicknessScale();
 			modified();
 		}
 
@@ -191,16 +207,13 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 
 	private String getMinThickness(boolean a) {
 		String minT = minlinethickness == null ? DEFAULT_MINLINETHICKNESS : minlinethickness;
-		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-		if(vp != null) {
-			minT = new String(minT);
-		}
 		return minT;
 	}
 
 	protected void setMaxThickness(String maxT) {
 		if (maxT !=null ){
 			maxlinethickness = maxT;
+			updateThicknessScale();
 			modified();
 		}
 
@@ -208,94 +221,62 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 
 	private String getMaxThickness(boolean a) {
 		String maxT = maxlinethickness == null ? DEFAULT_MAXLINETHICKNESS : maxlinethickness;
-		VPathway vp = getVisualization().getManager().getEngine().getActiveVPathway();
-		if(vp != null) {
-			maxT = new String(maxT);
-		}
 		return maxT;
 	}
 
 	protected void setMinData(String minD) {
 		if (minD !=null ){
 			mindatavalue = minD;
+			updateThicknessScale();
 			modified();
 		}
 	}
 
-	private String getMinData(boolean b) {
-		String minD = mindatavalue == null ? DEFAULT_MINDATAVALUE
-				: mindatavalue;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			minD = new String(minD);
-		}
-		return minD;
-	}
-
 	protected void setMaxData(String maxD) {
 		if (maxD !=null ){
 			maxdatavalue = maxD;
+			updateThicknessScale();
 			modified();
 		}
 	}
 
-	private String getMaxData(boolean b) {
-		String maxD = maxdatavalue == null ? DEFAULT_MAXDATAVALUE
-				: maxdatavalue;
-		VPathway vp = getVisualization().getManager().getEngine()
-				.getActiveVPathway();
-		if (vp != null) {
-			maxD = new String(maxD);
-		}
-		return maxD;
-	}
-
-	private float setLineThickness(float data) {
-		minlinethickness = getMinThickness(true);
-		maxlinethickness = getMaxThickness(true);
-		maxdatavalue = getMaxData(true);
-		mindatavalue = getMinData(true);
-		float minthickness = Float.parseFloat(minlinethickness);
-		float maxthickness = Float.parseFloat(maxlinethickness);
-		float maxdata = Float.parseFloat(maxdatavalue);
-		float mindata = Float.parseFloat(mindatavalue);
-
-		if (maxdata < mindata) {
-			maxdata = Float.parseFloat(mindatavalue);
-			mindata = Float.parseFloat(maxdatavalue);
-		}
-		if (maxthickness < minthickness) {
-			minthickness = Float.parseFloat(maxlinethickness);
-			maxthickness = Float.parseFloat(minlinethickness);
-		}
-
-		float linethickness = (data * ((maxthickness - minthickness) / (maxdata - mindata)))
-				+ minthickness;
-		return linethickness;
+	/**
+	 * Rebuild the thickness scale from the current settings, called
+	 * whenever one of the thickness or data range settings changes.
+	 */
+	private void updateThicknessScale() {
+		thicknessScale = ThicknessScale.parse(
+				minlinethickness == null ? DEFAULT_MINLINETHICKNESS : minlinethickness,
+				maxlinethickness == null ? DEFAULT_MAXLINETHICKNESS : maxlinethickness,
+				mindatavalue == null ? DEFAULT_MINDATAVALUE : mindatavalue,
+				maxdatavalue == null ? DEFAULT_MAXDATAVALUE : maxdatavalue,
+				thicknessScale);
 	}
-	private void changeLineThickness(Line gp, Graphics2D g2d, IRow dataval, ISample sample){
-		
-		double datavalue = (Double) dataval.getSampleData(sample);
+	private void changeLineThickness(Line gp, Graphics2D g2d, double datavalue){
 
 		if (datavalue < 0) {
 					datavalue = datavalue * (-1);
 		}
 
 		float lt = 2;
-		lt = setLineThickness((float) datavalue);
-			
+		lt = thicknessScale.thickness((float) datavalue);
+		if (!EdgeCulling.isStrokeVisible(gp, g2d, lt)) {
+			return;
+		}
+		g2d.setClip(null);
 		
 		int ls = gp.getPathwayElement().getLineStyle();
 		if (ls == 0) {
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 		} else if (ls == 1) {
-			g2d.setStroke(new BasicStroke(1, BasicStroke.CAP_SQUARE,
-					BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
+			g2d.setStroke(StrokeCache.getStroke(1, ls));
 		}
 
 		g2d.draw(gp.getVConnectorAdjusted());
 
+		if (!levelOfDetail.showHeads(gp.getDrawing()))
+			return; // too small to see the arrow heads
+
 		ArrowShape[] heads = gp.getVHeadsAdjusted();
 		ArrowShape hs = heads[0];
 		ArrowShape he = heads[1];
@@ -309,7 +290,7 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 		if(arrow != null)
 		{
 			// reset stroked line to solid, but use given thickness
-			g2d.setStroke(new BasicStroke(lt));
+			g2d.setStroke(StrokeCache.getSolidStroke(lt));
 
 			switch (arrow.getFillType())
 			{
@@ -362,6 +343,28 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 		}
 	}
 
+	int getAggregation() {
+		return aggregation;
+	}
+
+	/**
+	 * Set how the rows of an interaction with several rows are combined,
+	 * see RowAggregation.
+	 */
+	void setAggregation(int aggregation) {
+		this.aggregation = aggregation;
+		modified();
+	}
+
+	LevelOfDetail getLevelOfDetail() {
+		return levelOfDetail;
+	}
+
+	void setLevelOfDetail(LevelOfDetail lod) {
+		levelOfDetail = lod;
+		modified();
+	}
+
 	static final String XML_ATTR_MINLINETHICKNESS = "minlinethickness";
 	static final String XML_ATTR_MAXLINETHICKNESS = "maxlinethickness";
 	static final String XML_ELM_ID = "sample-id";
@@ -371,6 +374,7 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 		Element xml = super.toXML();
 		xml.setAttribute(XML_ATTR_MINLINETHICKNESS, getMinThickness(true));
 		xml.setAttribute(XML_ATTR_MAXLINETHICKNESS, getMaxThickness(true));
+		xml.setAttribute(RowAggregation.XML_ATTR, RowAggregation.toXML(aggregation));
 		for(ConfiguredSample s : useSamples)
 		{
 			if (s.getColorSet() != null) {
@@ -380,6 +384,7 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 			selm.setText(Integer.toString(s.getId()));
 			xml.addContent(selm);
 		}
+		xml.addContent(levelOfDetail.toXML());
 		return xml;
 	}
 
@@ -395,6 +400,9 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 			setMinThickness(xml.getAttributeValue(XML_ATTR_MINLINETHICKNESS));
 			setMaxThickness(xml.getAttributeValue(XML_ATTR_MAXLINETHICKNESS));
 		}
+		aggregation = RowAggregation.fromXML(
+				xml.getAttributeValue(RowAggregation.XML_ATTR), RowAggregation.FIRST);
+		levelOfDetail = LevelOfDetail.fromXML(xml, LevelOfDetail.DEFAULT);
 	}
 
 	
@@ -445,8 +453,7 @@ public class ThicknessByLine extends AbstractVisualizationMethod {
 			if (sample == null)
 				throw new VisualizationException("Couldn't find Sample with id " + id);
 
-			setColorSet(getVisualization().getManager().getColorSetManager()
-					.getColorSet(csn));
+			setColorSet(csm.getColorSet(csn));
 		}
 
 		/**
@@ -58,6 +58,8 @@ public class ThicknessByLinePanel extends JPanel implements ActionListener,
 	static final String ACTION_SAMPLE = "sample";
 	static final String ACTION_OPTIONS = "Thickness Gradient Options";
 	static final String ACTION_COMBO = "Colorset";
+	static final String ACTION_AGGREGATION = "Aggregation";
+	static final String ACTION_DETAIL = "Level of detail...";
 
 	private final ThicknessByLine method;
 	private final ColorSetManager csm;
@@ -71,7 +73,7 @@ public class ThicknessByLinePanel extends JPanel implements ActionListener,
 		this.method = method;
 		this.csm = csm;
 		setLayout(new FormLayout("4dlu, pref, 2dlu, fill:pref:grow, 4dlu",
-				"4dlu, pref:grow, 4dlu, pref, 4dlu"));
+				"4dlu, pref:grow, 4dlu, pref, 4dlu, pref, 4dlu, pref, 4dlu"));
 		final CellConstraints cc = new CellConstraints();
 		
 		JPanel samplePane = new JPanel();
@@ -113,6 +115,17 @@ public class ThicknessByLinePanel extends JPanel implements ActionListener,
 		
 		add(samplePane, cc.xyw(2, 2, 3));
 		add(options, cc.xy(2, 4));
+
+		JComboBox aggregation = RowAggregation.createComboBox(method.getAggregation());
+		aggregation.setActionCommand(ACTION_AGGREGATION);
+		aggregation.addActionListener(this);
+		add(new JLabel("Multiple rows:"), cc.xy(2, 6));
+		add(aggregation, cc.xy(4, 6));
+
+		JButton detail = new JButton(ACTION_DETAIL);
+		detail.setActionCommand(ACTION_DETAIL);
+		detail.addActionListener(this);
+		add(detail, cc.xy(2, 8));
 		refresh();
 	}
 
@@ -130,6 +143,16 @@ public class ThicknessByLinePanel extends JPanel implements ActionListener,
 			optionsDlg.setDialogComponent(createAppearancePanel());
 			optionsDlg.pack();
 			optionsDlg.setVisible(true);
+		} else if (ACTION_AGGREGATION.equals(action)) {
+			method.setAggregation(((JComboBox) e.getSource()).getSelectedIndex());
+		} else if (ACTION_DETAIL.equals(action)) {
+			LevelOfDetail.showDialog((Component) e.getSource(), method.getLevelOfDetail(),
+					LevelOfDetail.HEADS, new LevelOfDetail.Listener() {
+				@Override
+				public void levelOfDetailChanged(LevelOfDetail lod) {
+					method.setLevelOfDetail(lod);
+				}
+			});
 		}
 	}
 
@@ -0,0 +1,80 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import org.pathvisio.core.debug.Logger;
+
+/**
+ * Immutable mapping from a data value to a line thickness. The
+ * thickness and data ranges are parsed and ordered once, when the
+ * configuration changes, so that painting a line only needs a
+ * multiply-add.
+ */
+final class ThicknessScale {
+
+	private final float minThickness;
+	private final float maxThickness;
+	private final float minData;
+	private final float maxData;
+	private final float slope;
+
+	ThicknessScale(float minThickness, float maxThickness, float minData, float maxData) {
+		if (maxData < minData) {
+			float tmp = maxData;
+			maxData = minData;
+			minData = tmp;
+		}
+		if (maxThickness < minThickness) {
+			float tmp = maxThickness;
+			maxThickness = minThickness;
+			minThickness = tmp;
+		}
+		this.minThickness = minThickness;
+		this.maxThickness = maxThickness;
+		this.minData = minData;
+		this.maxData = maxData;
+		this.slope = (maxThickness - minThickness) / (maxData - minData);
+	}
+
+	/**
+	 * Create a scale from the String values as they are stored in the
+	 * visualization settings. When one of the values can't be parsed,
+	 * the given fallback scale is returned.
+	 */
+	static ThicknessScale parse(String minT, String maxT, String minD, String maxD, ThicknessScale fallback) {
+		try {
+			return new ThicknessScale(
+					Float.parseFloat(minT), Float.parseFloat(maxT),
+					Float.parseFloat(minD), Float.parseFloat(maxD));
+		} catch (NumberFormatException e) {
+			Logger.log.error("Invalid line thickness settings", e);
+			return fallback;
+		}
+	}
+
+	/**
+	 * Line thickness for the given (absolute) data value
+	 */
+	float thickness(float data) {
+		return data * slope + minThickness;
+	}
+
+	float getMinThickness() { return minThickness; }
+	float getMaxThickness() { return maxThickness; }
+	float getMinData() { return minData; }
+	float getMaxData() { return maxData; }
+}
@@ -0,0 +1,382 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.pathvisio.core.view.ArrowShape;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.core.view.VPathwayEvent;
+import org.pathvisio.core.view.VPathwayEventType;
+import org.pathvisio.core.view.VPathwayListener;
+
+/**
+ * Renders every time point of a MultiTimeByLine time course to an image,
+ * without drawing on screen. When the exporter is created, the geometry of
+ * all lines is copied from the pathway and the pathway is rendered twice
+ * without the time course overlay: once as the background, and once as a
+ * foreground that keeps only what is drawn over the lines, such as nodes.
+ * Frames are then rasterized in parallel from that geometry and the
+ * precomputed frames, which are only read during the export, and the
+ * foreground is put on top, so lines stay under nodes as on screen.
+ */
+final class TimeCourseExporter {
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	/** Number of frames rendered ahead of writing, per thread */
+	private static final int FRAMES_PER_THREAD = 2;
+
+	/**
+	 * Receives the rendered frames in order
+	 */
+	private interface FrameWriter {
+		void write(int frame, BufferedImage image) throws IOException;
+	}
+
+	private final BufferedImage background;
+	/** What is drawn over the lines, transparent elsewhere */
+	private final BufferedImage foreground;
+	private final TimeCourseFrames frames;
+	private final Shape[] connectors;
+	/** Arrow heads of each line, closed heads are filled */
+	private final Shape[][] heads;
+	private final boolean[][] filled;
+	/** Color of each line in each frame, one instance per distinct color */
+	private final Color[] paints;
+
+	/**
+	 * Copy the geometry of all lines of the frames' plan and render the
+	 * pathway without the time course overlay. Must be called on the
+	 * thread that draws the pathway, while the overlay is switched off.
+	 *
+	 * @param drawHeads draw the arrow heads of the lines
+	 */
+	TimeCourseExporter(VPathway vp, TimeCourseFrames frames, boolean drawHeads) {
+		this.frames = frames;
+		EdgeRenderPlan plan = frames.getPlan();
+		int n = plan.size();
+		connectors = new Shape[n];
+		heads = new Shape[n][];
+		filled = new boolean[n][];
+		for (int i = 0; i < n; i++) {
+			Line l = plan.getLine(i);
+			connectors[i] = l.getVConnectorAdjusted();
+			ArrowShape[] arrows = drawHeads ? l.getVHeadsAdjusted() : new ArrowShape[0];
+			heads[i] = new Shape[arrows.length];
+			filled[i] = new boolean[arrows.length];
+			for (int h = 0; h < arrows.length; h++) {
+				if (arrows[h] != null) {
+					heads[i][h] = arrows[h].getShape();
+					filled[i][h] = arrows[h].getFillType() == ArrowShape.FillType.CLOSED;
+				}
+			}
+		}
+
+		paints = new Color[n * frames.size()];
+		Map<Integer, Color> palette = new HashMap<Integer, Color>();
+		for (int f = 0; f < frames.size(); f++) {
+			for (int i = 0; i < n; i++) {
+				if (frames.getState(f, i) != EdgeRenderPlan.READY) continue;
+				Integer argb = frames.getColor(f, i);
+				Color c = palette.get(argb);
+				if (c == null) {
+					c = new Color(argb, true);
+					palette.put(argb, c);
+				}
+				paints[f * n + i] = c;
+			}
+		}
+
+		int width = Math.max(1, vp.getVWidth());
+		int height = Math.max(1, vp.getVHeight());
+		background = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = background.createGraphics();
+		try {
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, width, height);
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			vp.draw(g2d);
+		} finally {
+			g2d.dispose();
+		}
+		foreground = renderForeground(vp, width, height);
+	}
+
+	/**
+	 * Render the pathway to a transparent image, erasing the area of each
+	 * line's overlay right after the line is drawn. What is left is drawn
+	 * after the last line that covers a pixel, i.e. what the screen shows
+	 * over the overlay.
+	 */
+	private BufferedImage renderForeground(VPathway vp, int width, int height) {
+		final EdgeRenderPlan plan = frames.getPlan();
+		final Shape[] covers = new Shape[plan.size()];
+		for (int i = 0; i < covers.length; i++) {
+			float maxWidth = -1;
+			for (int f = 0; f < frames.size(); f++) {
+				if (frames.getState(f, i) == EdgeRenderPlan.READY) {
+					maxWidth = Math.max(maxWidth, frames.getWidth(f, i));
+				}
+			}
+			if (maxWidth < 0) continue;
+			// grown by a pixel on all sides for antialiasing
+			BasicStroke s = StrokeCache.getSolidStroke(maxWidth + 2);
+			Area a = new Area(s.createStrokedShape(connectors[i]));
+			for (int h = 0; h < heads[i].length; h++) {
+				if (heads[i][h] == null) continue;
+				a.add(new Area(s.createStrokedShape(heads[i][h])));
+				if (filled[i][h]) {
+					a.add(new Area(heads[i][h]));
+				}
+			}
+			covers[i] = a;
+		}
+
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = img.createGraphics();
+		VPathwayListener eraser = new VPathwayListener() {
+			@Override
+			public void vPathwayEvent(VPathwayEvent e) {
+				if (e.getType() != VPathwayEventType.ELEMENT_DRAWN
+						|| !(e.getAffectedElement() instanceof Line)) return;
+				int i = plan.indexOf((Line) e.getAffectedElement());
+				if (i < 0 || covers[i] == null) return;
+				Graphics2D g = (Graphics2D) e.getGraphics2D().create();
+				try {
+					g.setClip(null);
+					g.setComposite(AlphaComposite.Clear);
+					g.fill(covers[i]);
+				} finally {
+					g.dispose();
+				}
+			}
+		};
+		vp.addVPathwayListener(eraser);
+		try {
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			vp.draw(g2d);
+		} finally {
+			vp.removeVPathwayListener(eraser);
+			g2d.dispose();
+		}
+		return img;
+	}
+
+	/**
+	 * Render the given time point. May be called from any thread.
+	 */
+	BufferedImage renderFrame(int frame) {
+		BufferedImage img = new BufferedImage(background.getWidth(), background.getHeight(),
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		try {
+			g2d.drawImage(background, 0, 0, null);
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			int offset = frame * connectors.length;
+			for (int i = 0; i < connectors.length; i++) {
+				if (frames.getState(frame, i) != EdgeRenderPlan.READY) continue;
+				float width = frames.getWidth(frame, i);
+				g2d.setColor(paints[offset + i]);
+				g2d.setStroke(StrokeCache.getSolidStroke(width));
+				g2d.draw(connectors[i]);
+				for (int h = 0; h < heads[i].length; h++) {
+					if (heads[i][h] == null) continue;
+					if (filled[i][h]) {
+						g2d.fill(heads[i][h]);
+					}
+					g2d.draw(heads[i][h]);
+				}
+			}
+			g2d.drawImage(foreground, 0, 0, null);
+		} finally {
+			g2d.dispose();
+		}
+		return img;
+	}
+
+	/**
+	 * Write every time point as a PNG file named prefix_number.png
+	 * to the given directory.
+	 */
+	void writePng(final File dir, final String prefix) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+		final String pattern = "%s_%0" + Integer.toString(frames.size()).length() + "d.png";
+		render(new FrameWriter() {
+			@Override
+			public void write(int frame, BufferedImage image) throws IOException {
+				File f = new File(dir, String.format(pattern, prefix, frame + 1));
+				if (!ImageIO.write(image, "png", f)) {
+					throw new IOException("No PNG writer available");
+				}
+			}
+		}, true);
+	}
+
+	/**
+	 * Write all time points to a single animated GIF file.
+	 *
+	 * @param delay time each frame is shown, in milliseconds
+	 * @param loop repeat the animation endlessly
+	 */
+	void writeGif(File file, int delay, final boolean loop) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("gif");
+		if (!writers.hasNext()) {
+			throw new IOException("No GIF writer available");
+		}
+		final ImageWriter writer = writers.next();
+		final String delayTime = Integer.toString(Math.max(1, delay / 10));
+		ImageOutputStream out = ImageIO.createImageOutputStream(file);
+		if (out == null) {
+			throw new IOException("Unable to write to " + file);
+		}
+		try {
+			writer.setOutput(out);
+			writer.prepareWriteSequence(null);
+			render(new FrameWriter() {
+				@Override
+				public void write(int frame, BufferedImage image) throws IOException {
+					ImageWriteParam param = writer.getDefaultWriteParam();
+					IIOMetadata meta = writer.getDefaultImageMetadata(
+							ImageTypeSpecifier.createFromRenderedImage(image), param);
+					String format = meta.getNativeMetadataFormatName();
+					IIOMetadataNode root = (IIOMetadataNode) meta.getAsTree(format);
+
+					IIOMetadataNode gce = getNode(root, "GraphicControlExtension");
+					gce.setAttribute("disposalMethod", "none");
+					gce.setAttribute("userInputFlag", "FALSE");
+					gce.setAttribute("transparentColorFlag", "FALSE");
+					gce.setAttribute("transparentColorIndex", "0");
+					gce.setAttribute("delayTime", delayTime);
+
+					if (frame == 0 && loop) {
+						IIOMetadataNode app = new IIOMetadataNode("ApplicationExtension");
+						app.setAttribute("applicationID", "NETSCAPE");
+						app.setAttribute("authenticationCode", "2.0");
+						// loop forever
+						app.setUserObject(new byte[] { 1, 0, 0 });
+						getNode(root, "ApplicationExtensions").appendChild(app);
+					}
+					meta.setFromTree(format, root);
+					writer.writeToSequence(new IIOImage(image, null, meta), param);
+				}
+			}, false);
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+
+	private static IIOMetadataNode getNode(IIOMetadataNode root, String name) {
+		for (int i = 0; i < root.getLength(); i++) {
+			if (root.item(i).getNodeName().equalsIgnoreCase(name)) {
+				return (IIOMetadataNode) root.item(i);
+			}
+		}
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		root.appendChild(node);
+		return node;
+	}
+
+	/**
+	 * Render all frames in parallel, a few frames per thread at a time,
+	 * and pass them to the writer.
+	 *
+	 * @param parallelWrite the writer may be called from several threads;
+	 * otherwise frames are written in order on the calling thread
+	 */
+	private void render(final FrameWriter writer, final boolean parallelWrite) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "IntViz frame export");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			int batch = THREADS * FRAMES_PER_THREAD;
+			for (int start = 0; start < frames.size(); start += batch) {
+				List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>();
+				for (int f = start; f < Math.min(frames.size(), start + batch); f++) {
+					final int frame = f;
+					tasks.add(new Callable<BufferedImage>() {
+						@Override
+						public BufferedImage call() throws IOException {
+							BufferedImage img = renderFrame(frame);
+							if (parallelWrite) {
+								writer.write(frame, img);
+								return null;
+							}
+							return img;
+						}
+					});
+				}
+				int frame = start;
+				for (Future<BufferedImage> result : executor.invokeAll(tasks)) {
+					BufferedImage img = result.get();
+					if (!parallelWrite) {
+						writer.write(frame, img);
+					}
+					frame++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to render frame: " + e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
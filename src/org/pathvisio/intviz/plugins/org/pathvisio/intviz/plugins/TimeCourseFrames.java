@@ -0,0 +1,139 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+/**
+ * The entries of a render plan for each time point of a time course, kept
+ * in flat lines x time points arrays. Frames are computed once when the
+ * playback starts; showing a frame copies its entries into the plan, so
+ * playing the animation doesn't look up or evaluate any data.
+ * <p>
+ * For interpolation between time points, the color channels and width of
+ * each entry are also kept as floats, with their difference to the next
+ * time point, so a blended frame costs one multiply-add per channel.
+ */
+final class TimeCourseFrames {
+
+	/**
+	 * Computes the entries of all lines of the plan for one time point
+	 */
+	interface FrameResolver {
+		void resolveFrame(EdgeRenderPlan plan, int frame);
+	}
+
+	private final EdgeRenderPlan plan;
+	private final int frameCount;
+	private final int[] colors;
+	private final float[] widths;
+	private final byte[] states;
+	/** Alpha, red, green, blue and width of each entry, and their change to the next frame */
+	private float[] channels;
+	private float[] deltas;
+
+	private static final int CHANNELS = 5;
+
+	/**
+	 * Compute all frames of the given plan. The plan is left showing
+	 * the last frame.
+	 */
+	TimeCourseFrames(EdgeRenderPlan plan, int frameCount, FrameResolver resolver) {
+		this.plan = plan;
+		this.frameCount = frameCount;
+		int n = plan.size();
+		colors = new int[n * frameCount];
+		widths = new float[n * frameCount];
+		states = new byte[n * frameCount];
+		for (int f = 0; f < frameCount; f++) {
+			resolver.resolveFrame(plan, f);
+			plan.saveEntries(colors, widths, states, f * n);
+		}
+	}
+
+	EdgeRenderPlan getPlan() { return plan; }
+	int size() { return frameCount; }
+
+	byte getState(int frame, int index) { return states[frame * plan.size() + index]; }
+	int getColor(int frame, int index) { return colors[frame * plan.size() + index]; }
+	float getWidth(int frame, int index) { return widths[frame * plan.size() + index]; }
+
+	/**
+	 * Load the entries of the given frame into the plan
+	 */
+	void show(int frame) {
+		plan.loadEntries(colors, widths, states, frame * plan.size());
+	}
+
+	/**
+	 * Load a blend of the given frame and the next into the plan. After the
+	 * last frame comes the first. Lines that aren't ready in both frames
+	 * take the entry of the nearest frame.
+	 *
+	 * @param t position between the frames, from 0 (this frame) to 1 (the next)
+	 */
+	void showBetween(int frame, float t) {
+		if (channels == null) {
+			prepareInterpolation();
+		}
+		int n = plan.size();
+		int next = (frame + 1) % frameCount;
+		int nearest = t < 0.5f ? frame : next;
+		for (int i = 0; i < n; i++) {
+			int e = frame * n + i;
+			if (states[e] != EdgeRenderPlan.READY
+					|| states[next * n + i] != EdgeRenderPlan.READY) {
+				int ne = nearest * n + i;
+				if (states[ne] == EdgeRenderPlan.READY) {
+					plan.set(i, colors[ne], widths[ne]);
+				} else {
+					plan.setState(i, states[ne]);
+				}
+				continue;
+			}
+			int o = e * CHANNELS;
+			int a = (int) (channels[o] + t * deltas[o] + 0.5f);
+			int r = (int) (channels[o + 1] + t * deltas[o + 1] + 0.5f);
+			int g = (int) (channels[o + 2] + t * deltas[o + 2] + 0.5f);
+			int b = (int) (channels[o + 3] + t * deltas[o + 3] + 0.5f);
+			plan.set(i, (a << 24) | (r << 16) | (g << 8) | b,
+					channels[o + 4] + t * deltas[o + 4]);
+		}
+	}
+
+	private void prepareInterpolation() {
+		int total = colors.length;
+		int n = plan.size();
+		channels = new float[total * CHANNELS];
+		deltas = new float[total * CHANNELS];
+		for (int e = 0; e < total; e++) {
+			int c = colors[e];
+			int o = e * CHANNELS;
+			channels[o] = (c >>> 24) & 0xff;
+			channels[o + 1] = (c >> 16) & 0xff;
+			channels[o + 2] = (c >> 8) & 0xff;
+			channels[o + 3] = c & 0xff;
+			channels[o + 4] = widths[e];
+		}
+		for (int e = 0; e < total; e++) {
+			int next = (e + n) % total;
+			int o = e * CHANNELS;
+			int no = next * CHANNELS;
+			for (int k = 0; k < CHANNELS; k++) {
+				deltas[o + k] = channels[no + k] - channels[o + k];
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.model.PathwayElementEvent;
+import org.pathvisio.core.model.PathwayElementListener;
+import org.pathvisio.core.model.StaticProperty;
+import org.pathvisio.core.view.Graphics;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+
+/**
+ * Cache of the Xref used to look up the data of each pathway element.
+ * The Xref is created once per element and dropped again when the
+ * identifier or data source of the element is edited. Elements are
+ * weakly referenced, so closed pathways don't stay in memory.
+ */
+final class XrefCache {
+
+	private static final Map<PathwayElement, Xref> xrefs = new WeakHashMap<PathwayElement, Xref>();
+	private static volatile int version;
+
+	private static final PathwayElementListener listener = new PathwayElementListener() {
+		@Override
+		public void gmmlObjectModified(PathwayElementEvent e) {
+			if (e.affectsProperty(StaticProperty.GENEID)
+					|| e.affectsProperty(StaticProperty.DATASOURCE)) {
+				synchronized (xrefs) {
+					// keep the key: the listener stays registered on the element
+					xrefs.put(e.getModifiedPathwayElement(), null);
+					version++;
+				}
+			}
+		}
+	};
+
+	private XrefCache() {}
+
+	/**
+	 * Get the Xref for the element of the given line or node
+	 */
+	static Xref getXref(Graphics g) {
+		return getXref(g.getPathwayElement());
+	}
+
+	/**
+	 * Get the Xref for the given element
+	 */
+	static Xref getXref(PathwayElement pe) {
+		synchronized (xrefs) {
+			Xref x = xrefs.get(pe);
+			if (x == null) {
+				boolean registered = xrefs.containsKey(pe);
+				x = new Xref(pe.getElementID(), pe.getDataSource());
+				xrefs.put(pe, x);
+				if (!registered) {
+					pe.addListener(listener);
+				}
+			}
+			return x;
+		}
+	}
+
+	/**
+	 * The Xrefs of all lines of the given pathway that have an identifier
+	 * and data source, e.g. to load their data in one batch.
+	 */
+	static Set<Xref> getLineXrefs(VPathway vp) {
+		Set<Xref> refs = new LinkedHashSet<Xref>();
+		for (Line l : EdgeRenderPlan.getLines(vp)) {
+			Xref x = getXref(l);
+			if (x.getId() != null && x.getDataSource() != null) {
+				refs.add(x);
+			}
+		}
+		return refs;
+	}
+
+	/**
+	 * Counter that is increased whenever the Xref of an element changes.
+	 * Data derived from Xrefs can be compared against it to detect edits.
+	 */
+	static int getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,75 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+
+import org.pathvisio.core.view.VPathway;
+
+/**
+ * Keeps the zoomed version of a font, so that all lines drawn at one zoom
+ * level share a single Font and FontMetrics instance. Zoom levels that
+ * round to the same point size share the same font. The font is derived
+ * again when the base font or the zoom factor of the VPathway changes.
+ */
+final class ZoomFontCache {
+
+	private Font baseFont;
+	private VPathway vPathway;
+	private double zoomFactor;
+	private Font font;
+	private FontMetrics metrics;
+	private FontRenderContext metricsFrc;
+
+	/**
+	 * Get the given font scaled to the zoom factor of the given pathway.
+	 * Returns the base font if there is no pathway.
+	 */
+	synchronized Font getFont(Font base, VPathway vp) {
+		if (vp == null) {
+			return base;
+		}
+		double zoom = vp.getZoomFactor();
+		if (font == null || base != baseFont || vp != vPathway || zoom != zoomFactor) {
+			int size = (int) Math.ceil(vp.vFromM(base.getSize()));
+			if (font == null || base != baseFont || font.getSize() != size) {
+				font = new Font(base.getName(), base.getStyle(), size);
+				metrics = null;
+			}
+			baseFont = base;
+			vPathway = vp;
+			zoomFactor = zoom;
+		}
+		return font;
+	}
+
+	/**
+	 * Get the metrics of the given font, cached as long as the font
+	 * and the font render context of the graphics don't change.
+	 */
+	synchronized FontMetrics getFontMetrics(Font f, Graphics2D g2d) {
+		FontRenderContext frc = g2d.getFontRenderContext();
+		if (metrics == null || metrics.getFont() != f || !frc.equals(metricsFrc)) {
+			metrics = g2d.getFontMetrics(f);
+			metricsFrc = frc;
+		}
+		return metrics;
+	}
+}
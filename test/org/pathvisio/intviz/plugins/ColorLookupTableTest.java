@@ -0,0 +1,144 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.pathvisio.desktop.visualization.ColorGradient;
+import org.pathvisio.desktop.visualization.ColorGradient.ColorValuePair;
+import org.pathvisio.desktop.visualization.ColorSet;
+import org.pathvisio.desktop.visualization.ColorSetManager;
+
+public class ColorLookupTableTest extends TestCase {
+
+	private ColorSetManager manager;
+
+	@Override
+	protected void setUp() {
+		manager = new ColorSetManager();
+	}
+
+	/**
+	 * A color set with a single gradient through the given points
+	 */
+	private ColorSet createColorSet(double[] values, Color[] colors) {
+		ColorGradient gradient = new ColorGradient();
+		for (ColorValuePair cvp : new ArrayList<ColorValuePair>(gradient.getColorValuePairs())) {
+			gradient.removeColorValuePair(cvp);
+		}
+		for (int i = 0; i < values.length; i++) {
+			gradient.addColorValuePair(new ColorValuePair(colors[i], values[i]));
+		}
+		ColorSet cs = new ColorSet(manager);
+		cs.addObject(gradient);
+		return cs;
+	}
+
+	private static ColorGradient getGradient(ColorSet cs) {
+		return (ColorGradient) cs.getObjects().get(0);
+	}
+
+	private static void assertColor(Color expected, Color actual, int tolerance) {
+		assertTrue("expected " + expected + " but was " + actual,
+				Math.abs(expected.getRed() - actual.getRed()) <= tolerance
+				&& Math.abs(expected.getGreen() - actual.getGreen()) <= tolerance
+				&& Math.abs(expected.getBlue() - actual.getBlue()) <= tolerance);
+	}
+
+	public void testEndPoints() {
+		ColorLookupTable table = ColorLookupTable.create(createColorSet(
+				new double[] { -1, 1 }, new Color[] { Color.BLUE, Color.RED }));
+		assertEquals(Color.BLUE, table.getColor(-1));
+		assertEquals(Color.RED, table.getColor(1));
+	}
+
+	public void testClamping() {
+		ColorLookupTable table = ColorLookupTable.create(createColorSet(
+				new double[] { -1, 1 }, new Color[] { Color.BLUE, Color.RED }));
+		assertEquals(Color.BLUE, table.getColor(-100));
+		assertEquals(Color.RED, table.getColor(100));
+		assertEquals(Color.BLUE, table.getColor(Double.NEGATIVE_INFINITY));
+		assertEquals(Color.RED, table.getColor(Double.POSITIVE_INFINITY));
+	}
+
+	public void testInterpolation() {
+		ColorLookupTable table = ColorLookupTable.create(createColorSet(
+				new double[] { 0, 10 }, new Color[] { Color.BLACK, Color.WHITE }));
+		assertColor(new Color(127, 127, 127), table.getColor(5), 2);
+		assertColor(new Color(63, 63, 63), table.getColor(2.5), 2);
+	}
+
+	/** Points given out of order are interpolated in the order of their values */
+	public void testOrderOfPoints() {
+		ColorLookupTable sorted = ColorLookupTable.create(createColorSet(
+				new double[] { -1, 0, 1 }, new Color[] { Color.BLUE, Color.WHITE, Color.RED }));
+		ColorLookupTable unsorted = ColorLookupTable.create(createColorSet(
+				new double[] { 1, -1, 0 }, new Color[] { Color.RED, Color.BLUE, Color.WHITE }));
+		// 0 lies between two entries of the table
+		assertColor(Color.WHITE, unsorted.getColor(0), 2);
+		for (double v = -1.5; v <= 1.5; v += 0.1) {
+			assertEquals(sorted.getColor(v), unsorted.getColor(v));
+		}
+		// between blue and white there is no red
+		Color c = unsorted.getColor(-0.5);
+		assertTrue(c.getRed() == c.getGreen() && c.getBlue() == 255);
+	}
+
+	public void testSinglePoint() {
+		ColorLookupTable table = ColorLookupTable.create(createColorSet(
+				new double[] { 3 }, new Color[] { Color.ORANGE }));
+		assertEquals(Color.ORANGE, table.getColor(-10));
+		assertEquals(Color.ORANGE, table.getColor(3));
+		assertEquals(Color.ORANGE, table.getColor(10));
+	}
+
+	public void testMatches() {
+		ColorSet cs = createColorSet(new double[] { -1, 1 }, new Color[] { Color.BLUE, Color.RED });
+		ColorLookupTable table = ColorLookupTable.create(cs);
+		assertTrue(table.matches(cs));
+		assertSame(table, ColorLookupTable.update(table, cs));
+
+		// equal points in another color set
+		ColorSet other = createColorSet(new double[] { -1, 1 }, new Color[] { Color.BLUE, Color.RED });
+		assertFalse(table.matches(other));
+
+		getGradient(cs).getColorValuePairs().get(1).setValue(2);
+		assertFalse(table.matches(cs));
+		ColorLookupTable updated = ColorLookupTable.update(table, cs);
+		assertNotSame(table, updated);
+		assertTrue(updated.matches(cs));
+		assertEquals(Color.RED, updated.getColor(2));
+
+		getGradient(cs).getColorValuePairs().get(0).setColor(Color.GREEN);
+		assertFalse(updated.matches(cs));
+
+		getGradient(cs).addColorValuePair(new ColorValuePair(Color.BLACK, 5));
+		assertFalse(ColorLookupTable.create(cs).matches(other));
+	}
+
+	public void testNotTabulated() {
+		assertNull(ColorLookupTable.create(null));
+		assertNull(ColorLookupTable.create(new ColorSet(manager)));
+
+		ColorSet two = createColorSet(new double[] { -1, 1 }, new Color[] { Color.BLUE, Color.RED });
+		two.addObject(new ColorGradient());
+		assertNull(ColorLookupTable.create(two));
+	}
+}
@@ -0,0 +1,81 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * DecimalFormatter must give the same text as the rounding TextByLine
+ * used before, Math.round followed by Double.toString.
+ */
+public class DecimalFormatterTest extends TestCase {
+
+	private DecimalFormatter formatter;
+
+	@Override
+	protected void setUp() {
+		formatter = new DecimalFormatter();
+	}
+
+	/** The formatting TextByLine used before DecimalFormatter */
+	private static String roundToString(double d, int precision) {
+		int dec = (int) Math.pow(10, precision);
+		double rounded = (double) (Math.round(d * dec)) / dec;
+		return dec == 1 ? Integer.toString((int) rounded) : Double.toString(rounded);
+	}
+
+	private void check(double d, int precision) {
+		assertEquals(d + " to " + precision + " decimals",
+				roundToString(d, precision), formatter.format(d, precision));
+	}
+
+	public void testFixedValues() {
+		double[] values = {
+				0, -0.0, 1, -1, 0.5, -0.5, 1.5, 2.5, -2.5, 0.125, 0.05, -0.05,
+				3.14159265, -3.14159265, 10, 100.001, 1234567.891, 9999999.99,
+				1e7, 1e-3, 9.99e-4, 123456789.123, -987654.321, 1e-9, 2e15, -2e15,
+				Double.MAX_VALUE, Double.MIN_VALUE, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY
+		};
+		for (double d : values) {
+			for (int p = 0; p <= DecimalFormatter.MAX_PRECISION; p++) {
+				check(d, p);
+			}
+		}
+	}
+
+	public void testRandomValues() {
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+			check(d, random.nextInt(DecimalFormatter.MAX_PRECISION + 1));
+		}
+	}
+
+	public void testNaN() {
+		assertEquals("NaN", formatter.format(Double.NaN, 2));
+	}
+
+	/** Cached results must not be returned for another precision */
+	public void testCacheKeepsPrecisionApart() {
+		assertEquals(roundToString(1.23456, 2), formatter.format(1.23456, 2));
+		assertEquals(roundToString(1.23456, 4), formatter.format(1.23456, 4));
+		assertEquals(roundToString(1.23456, 2), formatter.format(1.23456, 2));
+	}
+}
@@ -0,0 +1,183 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+
+public class EdgeIndexTest extends TestCase {
+
+	private Pathway pathway;
+	private VPathway vPathway;
+	private PathwayElement first;
+	private PathwayElement second;
+
+	@Override
+	protected void setUp() {
+		pathway = new Pathway();
+		first = createLine(10, 10, 50, 10);
+		second = createLine(500, 500, 540, 500);
+		vPathway = new VPathway(null);
+		vPathway.fromModel(pathway);
+		vPathway.setPctZoom(100);
+	}
+
+	@Override
+	protected void tearDown() {
+		EdgeIndex.dispose(vPathway);
+	}
+
+	private PathwayElement createLine(double x0, double y0, double x1, double y1) {
+		PathwayElement pe = PathwayElement.createPathwayElement(ObjectType.LINE);
+		pe.setMStartX(x0);
+		pe.setMStartY(y0);
+		pe.setMEndX(x1);
+		pe.setMEndY(y1);
+		pathway.add(pe);
+		return pe;
+	}
+
+	private Line getLine(PathwayElement pe) {
+		for (Line l : EdgeRenderPlan.getLines(vPathway)) {
+			if (l.getPathwayElement() == pe) return l;
+		}
+		fail("No line for " + pe);
+		return null;
+	}
+
+	private List<PathwayElement> query(double x, double y, double w, double h) {
+		List<PathwayElement> result = new ArrayList<PathwayElement>();
+		for (Line l : EdgeIndex.get(vPathway).query(new Rectangle2D.Double(x, y, w, h))) {
+			result.add(l.getPathwayElement());
+		}
+		return result;
+	}
+
+	public void testQuery() {
+		assertEquals(Arrays.asList(first), query(0, 0, 100, 100));
+		assertEquals(Arrays.asList(second), query(400, 400, 200, 200));
+		assertEquals(Collections.emptyList(), query(200, 200, 50, 50));
+		assertEquals(2, query(0, 0, 1000, 1000).size());
+	}
+
+	public void testQueryZoomed() {
+		vPathway.setPctZoom(200);
+		assertEquals(Arrays.asList(second), query(900, 900, 200, 200));
+		assertEquals(Collections.emptyList(), query(400, 400, 200, 200));
+	}
+
+	/** A line over many cells is found in each of them, and returned once */
+	public void testLongLine() {
+		PathwayElement longLine = createLine(0, 2000, 20 * EdgeIndex.CELL_SIZE, 2000);
+		assertEquals(Arrays.asList(longLine), query(0, 1990, 20, 20));
+		assertEquals(Arrays.asList(longLine), query(10 * EdgeIndex.CELL_SIZE, 1990, 20, 20));
+		assertEquals(Arrays.asList(longLine), query(0, 1990, 30 * EdgeIndex.CELL_SIZE, 20));
+	}
+
+	public void testMovedLine() {
+		final List<Rectangle2D> changes = new ArrayList<Rectangle2D>();
+		EdgeIndex index = EdgeIndex.get(vPathway);
+		index.refresh();
+		index.addChangeListener(new EdgeIndex.ChangeListener() {
+			@Override
+			public void boundsChanged(Rectangle2D oldBounds, Rectangle2D newBounds) {
+				changes.add(oldBounds);
+				changes.add(newBounds);
+			}
+
+			@Override
+			public void indexRebuilt() {
+				fail("The index shouldn't be rebuilt for a moved line");
+			}
+		});
+		first.setMStartY(300);
+		first.setMEndY(300);
+		assertEquals(Collections.emptyList(), query(0, 0, 100, 100));
+		assertEquals(Arrays.asList(first), query(0, 250, 100, 100));
+		assertEquals(2, changes.size());
+		assertEquals(10, changes.get(0).getMinY(), 0);
+		assertEquals(300, changes.get(1).getMinY(), 0);
+	}
+
+	public void testAddedLine() {
+		assertEquals(Collections.emptyList(), query(1000, 1000, 100, 100));
+		PathwayElement added = createLine(1010, 1010, 1050, 1050);
+		assertEquals(Arrays.asList(added), query(1000, 1000, 100, 100));
+	}
+
+	public void testDecoration() {
+		EdgeIndex index = EdgeIndex.get(vPathway);
+		Line line = getLine(first);
+		Object owner = new Object();
+		// right of the line, and below it
+		Rectangle2D right = new Rectangle2D.Double(60, 0, 10, 20);
+		Rectangle2D below = new Rectangle2D.Double(10, 100, 20, 20);
+
+		index.setDecoration(owner, line, right);
+		assertEquals(Arrays.asList(first), query(62, 2, 2, 2));
+		assertEquals(right, index.getDecoration(line));
+
+		// the decoration of the same owner is replaced, not grown
+		index.setDecoration(owner, line, below);
+		assertEquals(Collections.emptyList(), query(62, 2, 2, 2));
+		assertEquals(Arrays.asList(first), query(12, 105, 2, 2));
+
+		// decorations of other owners are combined
+		Object other = new Object();
+		index.setDecoration(other, line, right);
+		assertEquals(Arrays.asList(first), query(62, 2, 2, 2));
+		assertEquals(Arrays.asList(first), query(12, 105, 2, 2));
+		assertEquals(new Rectangle2D.Double(10, 0, 60, 120), index.getDecoration(line));
+		assertEquals(right, index.getDecoration(other, line));
+
+		EdgeIndex.clearDecorations();
+		assertNull(index.getDecoration(line));
+		assertEquals(Collections.emptyList(), query(62, 2, 2, 2));
+		assertEquals(Collections.emptyList(), query(12, 105, 2, 2));
+		assertEquals(Arrays.asList(first), query(0, 0, 100, 100));
+	}
+
+	/** Decorations are in model coordinates, so they follow the zoom */
+	public void testDecorationZoomed() {
+		EdgeIndex index = EdgeIndex.get(vPathway);
+		Line line = getLine(first);
+		index.setDecoration(this, line, new Rectangle2D.Double(100, 100, 20, 20));
+		vPathway.setPctZoom(50);
+		assertEquals(Arrays.asList(first), query(52, 52, 5, 5));
+		assertEquals(Collections.emptyList(), query(105, 105, 5, 5));
+	}
+
+	public void testDecorationDroppedWhenLineModified() {
+		EdgeIndex index = EdgeIndex.get(vPathway);
+		Line line = getLine(first);
+		index.setDecoration(this, line, new Rectangle2D.Double(100, 100, 20, 20));
+		first.setMEndX(60);
+		assertEquals(Collections.emptyList(), query(105, 105, 5, 5));
+		assertNull(index.getDecoration(line));
+	}
+}
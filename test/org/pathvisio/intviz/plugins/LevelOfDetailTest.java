@@ -0,0 +1,67 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import junit.framework.TestCase;
+
+import org.jdom.Element;
+
+public class LevelOfDetailTest extends TestCase {
+
+	private static void assertLevelOfDetail(double text, double bars, double heads, LevelOfDetail lod) {
+		assertEquals(text, lod.getMinTextZoom(), 0);
+		assertEquals(bars, lod.getMinBarZoom(), 0);
+		assertEquals(heads, lod.getMinHeadZoom(), 0);
+	}
+
+	public void testRoundTrip() {
+		Element parent = new Element("VisualizationMethod");
+		parent.addContent(new LevelOfDetail(12.5, 40, 75).toXML());
+		LevelOfDetail lod = LevelOfDetail.fromXML(parent, LevelOfDetail.DEFAULT);
+		assertLevelOfDetail(12.5, 40, 75, lod);
+	}
+
+	public void testDefaultRoundTrip() {
+		Element parent = new Element("VisualizationMethod");
+		parent.addContent(LevelOfDetail.DEFAULT.toXML());
+		assertLevelOfDetail(0, 0, 0, LevelOfDetail.fromXML(parent, new LevelOfDetail(1, 2, 3)));
+	}
+
+	/** Settings saved before the level of detail existed */
+	public void testMissingElement() {
+		LevelOfDetail fallback = new LevelOfDetail(1, 2, 3);
+		assertSame(fallback, LevelOfDetail.fromXML(new Element("VisualizationMethod"), fallback));
+	}
+
+	public void testMissingAttribute() {
+		Element elm = new Element(LevelOfDetail.XML_ELEMENT);
+		elm.setAttribute(LevelOfDetail.XML_ATTR_TEXT, "50");
+		Element parent = new Element("VisualizationMethod");
+		parent.addContent(elm);
+		assertLevelOfDetail(50, 2, 3, LevelOfDetail.fromXML(parent, new LevelOfDetail(1, 2, 3)));
+	}
+
+	public void testInvalidValue() {
+		Element elm = new Element(LevelOfDetail.XML_ELEMENT);
+		elm.setAttribute(LevelOfDetail.XML_ATTR_TEXT, "50");
+		elm.setAttribute(LevelOfDetail.XML_ATTR_BARS, "many");
+		Element parent = new Element("VisualizationMethod");
+		parent.addContent(elm);
+		LevelOfDetail fallback = new LevelOfDetail(1, 2, 3);
+		assertSame(fallback, LevelOfDetail.fromXML(parent, fallback));
+	}
+}
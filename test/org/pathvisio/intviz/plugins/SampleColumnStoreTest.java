@@ -0,0 +1,172 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.view.Line;
+import org.pathvisio.core.view.VPathway;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+import org.pathvisio.desktop.gex.CachedData;
+
+/**
+ * The states of the lines of a SampleColumnStore as their data arrives.
+ * The lines have no data rows, so no samples are needed.
+ */
+public class SampleColumnStoreTest extends TestCase {
+
+	private static final int LINES = 8;
+
+	private Pathway pathway;
+	private VPathway vPathway;
+	/** Xrefs whose data is in the cache */
+	private final Set<Xref> cached = Collections.newSetFromMap(new ConcurrentHashMap<Xref, Boolean>());
+	private CachedData cache;
+	private SampleColumnStore store;
+
+	@Override
+	protected void setUp() {
+		pathway = new Pathway();
+		for (int i = 0; i < LINES; i++) {
+			addLine("line" + i);
+		}
+		vPathway = new VPathway(null);
+		vPathway.fromModel(pathway);
+		cache = new CachedData(null) {
+			@Override
+			public boolean hasData(Xref ref) {
+				return cached.contains(ref);
+			}
+
+			@Override
+			public List<? extends IRow> getData(Xref ref) {
+				return cached.contains(ref) ? Collections.<IRow>emptyList() : null;
+			}
+		};
+		store = new SampleColumnStore(vPathway, cache, Collections.<ISample>emptyList(),
+				RowAggregation.FIRST, false);
+	}
+
+	private PathwayElement addLine(String id) {
+		PathwayElement pe = PathwayElement.createPathwayElement(ObjectType.LINE);
+		pe.setElementID(id);
+		pathway.add(pe);
+		return pe;
+	}
+
+	/** Let the data of the line at the given index arrive */
+	private void arrive(int index) {
+		cached.add(XrefCache.getXref(store.getLine(index)));
+	}
+
+	public void testPendingWithoutData() {
+		assertEquals(LINES, store.size());
+		for (int i = 0; i < LINES; i++) {
+			assertEquals(SampleColumnStore.PENDING, store.refresh(i));
+		}
+	}
+
+	public void testLoadedWhenMadeAfterData() {
+		arrive(2);
+		store = new SampleColumnStore(vPathway, cache, Collections.<ISample>emptyList(),
+				RowAggregation.FIRST, false);
+		assertEquals(SampleColumnStore.NO_ROWS, store.getState(2));
+		assertEquals(SampleColumnStore.PENDING, store.getState(3));
+	}
+
+	/** Lines marked on another thread are read by the thread that refreshes */
+	public void testMarkStaleFromOtherThread() throws InterruptedException {
+		arrive(3);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				store.markStale(3);
+			}
+		};
+		t.start();
+		t.join();
+		assertEquals(SampleColumnStore.STALE, store.getState(3));
+		assertEquals(SampleColumnStore.PENDING, store.getState(4));
+		assertEquals(SampleColumnStore.NO_ROWS, store.refresh(3));
+		assertEquals(SampleColumnStore.NO_ROWS, store.refresh(3));
+		assertEquals(SampleColumnStore.PENDING, store.refresh(4));
+	}
+
+	/** A line marked before its data is cached stays pending */
+	public void testStaleWithoutData() {
+		store.markStale(5);
+		assertEquals(SampleColumnStore.STALE, store.getState(5));
+		assertEquals(SampleColumnStore.PENDING, store.refresh(5));
+	}
+
+	public void testMarkStaleFromManyThreads() throws InterruptedException {
+		for (int i = 0; i < LINES; i++) {
+			arrive(i);
+		}
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < LINES; i++) {
+						store.markStale(i);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (int i = 0; i < LINES; i++) {
+			assertEquals(SampleColumnStore.NO_ROWS, store.refresh(i));
+		}
+	}
+
+	public void testIsValidFor() {
+		assertTrue(store.isValidFor(vPathway, cache, RowAggregation.FIRST));
+		assertFalse(store.isValidFor(vPathway, cache, RowAggregation.MEAN));
+		assertFalse(store.isValidFor(new VPathway(null), cache, RowAggregation.FIRST));
+
+		// editing an identifier changes the Xref of a line
+		store.getLine(0).getPathwayElement().setElementID("edited");
+		assertFalse(store.isValidFor(vPathway, cache, RowAggregation.FIRST));
+	}
+
+	public void testLineAddedLater() {
+		PathwayElement added = addLine("added");
+		for (Line l : EdgeRenderPlan.getLines(vPathway)) {
+			if (l.getPathwayElement() == added) {
+				assertEquals(-1, store.indexOf(l));
+				return;
+			}
+		}
+		fail("The added line isn't on the pathway");
+	}
+}
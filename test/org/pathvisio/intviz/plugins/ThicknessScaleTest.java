@@ -0,0 +1,77 @@
+// IntViz Plugin for PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2014 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.intviz.plugins;
+
+import junit.framework.TestCase;
+
+public class ThicknessScaleTest extends TestCase {
+
+	/** The computation the methods did for every line before ThicknessScale */
+	private static float setLineThickness(float data, float minthickness, float maxthickness,
+			float mindata, float maxdata) {
+		if (maxdata < mindata) {
+			float tmp = maxdata;
+			maxdata = mindata;
+			mindata = tmp;
+		}
+		if (maxthickness < minthickness) {
+			float tmp = maxthickness;
+			maxthickness = minthickness;
+			minthickness = tmp;
+		}
+		return (data * ((maxthickness - minthickness) / (maxdata - mindata))) + minthickness;
+	}
+
+	public void testThickness() {
+		ThicknessScale scale = new ThicknessScale(1, 5, 0, 4);
+		assertEquals(1f, scale.thickness(0), 0f);
+		assertEquals(3f, scale.thickness(2), 0f);
+		assertEquals(5f, scale.thickness(4), 0f);
+	}
+
+	public void testSameAsBefore() {
+		float[][] settings = {
+				{ 1, 5, 0, 4 }, { 5, 1, 0, 4 }, { 1, 5, 4, 0 }, { 0.5f, 10, -2, 3 }, { 2, 2, 1, 7 }
+		};
+		for (float[] s : settings) {
+			ThicknessScale scale = new ThicknessScale(s[0], s[1], s[2], s[3]);
+			for (float data = -5; data <= 5; data += 0.25f) {
+				assertEquals(setLineThickness(data, s[0], s[1], s[2], s[3]),
+						scale.thickness(data), 0f);
+			}
+		}
+	}
+
+	public void testRangesAreOrdered() {
+		ThicknessScale scale = new ThicknessScale(5, 1, 4, 0);
+		assertEquals(1f, scale.getMinThickness(), 0f);
+		assertEquals(5f, scale.getMaxThickness(), 0f);
+		assertEquals(0f, scale.getMinData(), 0f);
+		assertEquals(4f, scale.getMaxData(), 0f);
+	}
+
+	public void testParse() {
+		ThicknessScale scale = ThicknessScale.parse("1", "5", "0", "4", null);
+		assertEquals(3f, scale.thickness(2), 0f);
+	}
+
+	public void testParseFallback() {
+		ThicknessScale fallback = new ThicknessScale(1, 5, 0, 4);
+		assertSame(fallback, ThicknessScale.parse("1", "five", "0", "4", fallback));
+		assertSame(fallback, ThicknessScale.parse("", "5", "0", "4", fallback));
+	}
+}